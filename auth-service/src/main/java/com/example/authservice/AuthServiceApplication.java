@@ -1,25 +1,39 @@
 package com.example.authservice;
 
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
+import com.datastax.driver.core.policies.ConstantSpeculativeExecutionPolicy;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.NoSpeculativeExecutionPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 import lombok.*;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.cassandra.ClusterBuilderCustomizer;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
 import org.springframework.context.event.EventListener;
 import org.springframework.data.cassandra.config.AbstractReactiveCassandraConfiguration;
 import org.springframework.data.cassandra.config.SchemaAction;
 import org.springframework.data.cassandra.core.cql.keyspace.CreateKeyspaceSpecification;
 import org.springframework.data.cassandra.core.cql.keyspace.DropKeyspaceSpecification;
 import org.springframework.data.cassandra.core.cql.keyspace.KeyspaceOption;
+import org.springframework.data.cassandra.core.mapping.CassandraMappingContext;
+import org.springframework.data.cassandra.core.mapping.CassandraPersistentEntity;
 import org.springframework.data.cassandra.core.mapping.PrimaryKey;
 import org.springframework.data.cassandra.core.mapping.Table;
-import org.springframework.data.cassandra.repository.Query;
 import org.springframework.data.cassandra.repository.ReactiveCassandraRepository;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.authorization.AuthorizationDecision;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
@@ -45,11 +59,15 @@ import org.springframework.web.server.session.WebSessionIdResolver;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.stream.Collectors.toList;
 import static org.springframework.web.reactive.function.server.RequestPredicates.DELETE;
 import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.POST;
+import static org.springframework.web.reactive.function.server.RequestPredicates.contentType;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 import static org.springframework.web.reactive.function.server.ServerResponse.badRequest;
 import static org.springframework.web.reactive.function.server.ServerResponse.noContent;
@@ -60,10 +78,33 @@ import static org.springframework.web.reactive.function.server.ServerResponse.ok
 @EnableDiscoveryClient
 public class AuthServiceApplication {
 
+    @Value("${cassandra.speculative-execution.enabled:false}")
+    private boolean speculativeExecutionEnabled;
+
+    @Value("${cassandra.speculative-execution.delay:100}")
+    private long speculativeExecutionDelay;
+
+    @Value("${cassandra.speculative-execution.max-executions:2}")
+    private int speculativeExecutionMaxExecutions;
+
     public static void main(String[] args) {
         SpringApplication.run(AuthServiceApplication.class, args);
     }
 
+    // statements bound from prepared statements carry their routing key, so a token aware
+    // policy sends them straight to a replica owning the partition. Speculative executions
+    // are only ever sent for statements marked as idempotent, see UserRepositoryImpl.
+    @Bean
+    ClusterBuilderCustomizer clusterBuilderCustomizer() {
+        return builder -> builder
+            .withLoadBalancingPolicy(new TokenAwarePolicy(DCAwareRoundRobinPolicy.builder().build()))
+            .withSpeculativeExecutionPolicy(
+                this.speculativeExecutionEnabled
+                    ? new ConstantSpeculativeExecutionPolicy(this.speculativeExecutionDelay, this.speculativeExecutionMaxExecutions)
+                    : NoSpeculativeExecutionPolicy.INSTANCE
+            );
+    }
+
     @Bean
     public PasswordEncoder passwordEncoder() {
         return PasswordEncoderFactories.createDelegatingPasswordEncoder();
@@ -85,6 +126,7 @@ public class AuthServiceApplication {
             .authorizeExchange()
             .pathMatchers(HttpMethod.GET, "/users/exists").permitAll()
             .pathMatchers("/session").authenticated()
+            .pathMatchers("/users/import", "/users/export").hasRole("ADMIN")
             .pathMatchers("/users/{user}/**").access(this::currentUserMatchesPath)
             .anyExchange().authenticated()
             .and()
@@ -116,10 +158,13 @@ public class AuthServiceApplication {
 
     @Bean
     public RouterFunction<ServerResponse> routes(
-        UserHandler userHandler) {
+        UserHandler userHandler,
+        @Lazy UserBulkHandler userBulkHandler) {
         return route(GET("/session"), userHandler::current)
             .andRoute(DELETE("/session"), userHandler::logout)
-            .andRoute(GET("/users/exists"), userHandler::exists);
+            .andRoute(GET("/users/exists"), userHandler::exists)
+            .andRoute(POST("/users/import").and(contentType(MediaType.APPLICATION_STREAM_JSON)), userBulkHandler::importUsers)
+            .andRoute(GET("/users/export"), userBulkHandler::exportUsers);
     }
 }
 
@@ -185,24 +230,22 @@ class DataInitializer {
         this.passwordEncoder = passwordEncoder;
     }
 
+    // seeding is idempotent, existing users are kept and passwords are only hashed for missing ones
     @EventListener(value = ApplicationReadyEvent.class)
     private void init() {
         log.info("start users initialization  ...");
-        this.users
-            .deleteAll()
-            .thenMany(
-                Flux
-                    .just("user", "admin")
-                    .flatMap(
-                        username -> {
-                            List<String> roles = "user".equals(username)
-                                ? Arrays.asList("USER")
-                                : Arrays.asList("USER", "ADMIN");
-
-                            User user = User.builder().roles(roles).email(username + "@example.com").username(username).password(this.passwordEncoder.encode("password")).build();
-                            return this.users.save(user);
-                        }
-                    )
+        Flux
+            .just("user", "admin")
+            .flatMap(
+                username -> this.users.findByUsername(username)
+                    .switchIfEmpty(Mono.defer(() -> {
+                        List<String> roles = "user".equals(username)
+                            ? Arrays.asList("USER")
+                            : Arrays.asList("USER", "ADMIN");
+
+                        User user = User.builder().roles(roles).email(username + "@example.com").username(username).password(this.passwordEncoder.encode("password")).build();
+                        return this.users.save(user);
+                    }))
             )
             .log()
             .subscribe(
@@ -214,48 +257,81 @@ class DataInitializer {
 
 }
 
+@Component
+@Slf4j
+class StartupTimeReporter {
+
+    private final AtomicLong readyTime;
+
+    public StartupTimeReporter(MeterRegistry meterRegistry) {
+        this.readyTime = meterRegistry.gauge("application.ready.time", new AtomicLong());
+    }
+
+    @EventListener(value = ApplicationReadyEvent.class)
+    private void report() {
+        long millis = ManagementFactory.getRuntimeMXBean().getUptime();
+        this.readyTime.set(millis);
+        log.info("application ready in {} ms since JVM start", millis);
+    }
+
+}
+
+// there is no schema action for validation in Spring Data Cassandra, when the schema is left
+// alone (prod profile) this checks the mapped tables and columns exist before the application starts
+@Component
+@Profile("prod")
+@Slf4j
+class CassandraSchemaValidator implements InitializingBean {
 
-interface UserRepository extends ReactiveCassandraRepository<User, String> {
+    private final Session session;
+    private final CassandraMappingContext mappingContext;
+
+    public CassandraSchemaValidator(Session session, CassandraMappingContext mappingContext) {
+        this.session = session;
+        this.mappingContext = mappingContext;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        KeyspaceMetadata keyspace = this.session.getCluster().getMetadata().getKeyspace(this.session.getLoggedKeyspace());
+        if (keyspace == null) {
+            throw new IllegalStateException("keyspace " + this.session.getLoggedKeyspace() + " does not exist");
+        }
+
+        CassandraPersistentEntity<?> entity = this.mappingContext.getRequiredPersistentEntity(User.class);
+        TableMetadata table = keyspace.getTable(entity.getTableName().toCql());
+        if (table == null) {
+            throw new IllegalStateException("table " + entity.getTableName() + " does not exist in keyspace " + keyspace.getName());
+        }
+
+        entity.forEach(property -> {
+            if (table.getColumn(property.getColumnName().toCql()) == null) {
+                throw new IllegalStateException("column " + property.getColumnName() + " does not exist in table " + table.getName());
+            }
+        });
+        log.info("schema of table {} validated", table.getName());
+    }
+
+}
+
+
+interface UserRepository extends ReactiveCassandraRepository<User, String>, UserRepositoryCustom {
+}
+
+// hand written queries, see UserRepositoryImpl
+interface UserRepositoryCustom {
     Mono<User> findByUsername(String username);
 
-    // NOTE, be very careful about ALLOW FILTERING in real world apps, this
-    // may affect scalability quite a lot. Filtering is efficient over primary
-    // keys, not on all generic columns
-    @Query("SELECT * FROM users WHERE email = ?0 ALLOW FILTERING")
     Mono<User> findByEmail(String email);
+
+    Flux<User> scanAll();
+
+    Mono<Set<String>> findExistingUsernames(Collection<String> usernames);
+
+    Mono<Integer> insertAll(List<User> users);
+
+    Mono<Void> deleteAll();
 }
-// @Component
-// class UserRepository{
-//    private final ReactiveCassandraTemplate template;
-//
-//    public UserRepository(ReactiveCassandraTemplate template) {
-//        this.template = template;
-//    }
-//
-//    public Mono<User> findByUsername(String username) {
-//        return this.template
-//                .selectOne(
-//                        query(where("username").is(username)),
-//                        User.class
-//                );
-//    }
-//
-//    public Mono<User> findByEmail(String email) {
-//        return this.template
-//                .selectOne(
-//                        query(where("email").is(email)),
-//                        User.class
-//                );
-//    }
-//
-//    public Mono<User> save(User user) {
-//        return this.template.insert(user);
-//    }
-//
-//    public Mono<Boolean> deleteAll() {
-//        return this.template.delete(Query.empty(), User.class);
-//    }
-//}
 
 @Data
 @ToString
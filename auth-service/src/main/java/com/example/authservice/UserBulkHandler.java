@@ -0,0 +1,242 @@
+package com.example.authservice;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+/**
+ * Streaming bulk import and export of users as line delimited json ({@code application/stream+json}).
+ * <p>
+ * The import hashes passwords on a bounded scheduler, the number of users in flight is limited,
+ * so the upload is only read as fast as the users can be hashed and written. The result of each
+ * line is streamed back to the client in upload order: {@code created}, {@code skipped} for a user
+ * which exists already, or {@code failed} for a line without username or password, a username
+ * repeated in the upload, or a batch which could not be written. A user created between the lookup
+ * and the write of its batch is still overwritten, do not import while users sign up. The export
+ * pages through the users table.
+ */
+@Component
+@Lazy
+@Slf4j
+class UserBulkHandler {
+
+    private final UserRepository users;
+    private final PasswordEncoder passwordEncoder;
+    private final Scheduler encoderScheduler;
+    private final Counter imported;
+    private final Counter exported;
+    private final int batchSize;
+    private final int writeConcurrency;
+
+    public UserBulkHandler(UserRepository users,
+                           PasswordEncoder passwordEncoder,
+                           MeterRegistry meterRegistry,
+                           @Value("${users.bulk.encoder-threads:4}") int encoderThreads,
+                           @Value("${users.bulk.batch-size:500}") int batchSize,
+                           @Value("${users.bulk.write-concurrency:4}") int writeConcurrency) {
+        this.users = users;
+        this.passwordEncoder = passwordEncoder;
+        this.batchSize = batchSize;
+        this.writeConcurrency = writeConcurrency;
+        this.encoderScheduler = Schedulers.newParallel("user-import", encoderThreads);
+        this.imported = meterRegistry.counter("users.bulk", "operation", "import");
+        this.exported = meterRegistry.counter("users.bulk", "operation", "export");
+    }
+
+    @PreDestroy
+    void destroy() {
+        this.encoderScheduler.dispose();
+    }
+
+    public Mono<ServerResponse> importUsers(ServerRequest req) {
+        long start = System.nanoTime();
+        AtomicLong created = new AtomicLong();
+        // usernames of the upload, a later line with the same username is refused
+        Set<String> uploaded = ConcurrentHashMap.newKeySet();
+
+        Flux<BulkResult> results = req.bodyToFlux(ImportedUser.class)
+            .index()
+            .buffer(this.batchSize)
+            .flatMapSequential(batch -> this.importBatch(batch, uploaded), this.writeConcurrency)
+            .doOnNext(result -> {
+                if (result.isCreated() && created.incrementAndGet() % this.batchSize == 0) {
+                    log.debug("users import progress: {}", BulkProgress.of(created.get(), start));
+                }
+            })
+            .doOnComplete(() -> log.info("imported users: {}", BulkProgress.of(created.get(), start)));
+
+        return ok().contentType(MediaType.APPLICATION_STREAM_JSON).body(results, BulkResult.class);
+    }
+
+    // existing users are skipped, INSERT is an upsert in Cassandra and would overwrite them
+    private Flux<BulkResult> importBatch(List<Tuple2<Long, ImportedUser>> batch, Set<String> uploaded) {
+        BulkResult[] results = new BulkResult[batch.size()];
+        List<Integer> valid = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            ImportedUser user = batch.get(i).getT2();
+            if (!StringUtils.hasText(user.getUsername()) || !StringUtils.hasText(user.getPassword())) {
+                results[i] = BulkResult.failed(batch.get(i).getT1(), user.getUsername(), "username and password are required");
+            } else if (!uploaded.add(user.getUsername())) {
+                results[i] = BulkResult.failed(batch.get(i).getT1(), user.getUsername(), "duplicate username in the import");
+            } else {
+                valid.add(i);
+            }
+        }
+
+        return this.users.findExistingUsernames(valid.stream().map(i -> batch.get(i).getT2().getUsername()).collect(Collectors.toList()))
+            .flatMapMany(existing -> Flux.fromIterable(valid)
+                .filter(i -> {
+                    Tuple2<Long, ImportedUser> item = batch.get(i);
+                    if (existing.contains(item.getT2().getUsername())) {
+                        results[i] = new BulkResult(item.getT1(), item.getT2().getUsername(), BulkResult.SKIPPED, "user exists");
+                        return false;
+                    }
+                    return true;
+                }))
+            .flatMapSequential(i -> Mono.fromCallable(() -> this.toUser(batch.get(i).getT2())).subscribeOn(this.encoderScheduler))
+            .collectList()
+            .flatMap(created -> created.isEmpty() ? Mono.just(0) : this.users.insertAll(created))
+            .map(count -> {
+                this.imported.increment(count);
+                return Optional.<String>empty();
+            })
+            .onErrorResume(e -> {
+                log.warn("users import batch failed: {}", e.getMessage());
+                return Mono.just(Optional.of(e.getMessage()));
+            })
+            .flatMapIterable(error -> {
+                for (int i = 0; i < results.length; i++) {
+                    if (results[i] == null) {
+                        Tuple2<Long, ImportedUser> item = batch.get(i);
+                        results[i] = error.isPresent()
+                            ? BulkResult.failed(item.getT1(), item.getT2().getUsername(), error.get())
+                            : new BulkResult(item.getT1(), item.getT2().getUsername(), BulkResult.CREATED, null);
+                    }
+                }
+                return Arrays.asList(results);
+            });
+    }
+
+    public Mono<ServerResponse> exportUsers(ServerRequest req) {
+        long start = System.nanoTime();
+        AtomicLong total = new AtomicLong();
+
+        Flux<ExportedUser> exported = this.users.scanAll()
+            .map(user -> new ExportedUser(user.getUsername(), user.getEmail(), user.isActive(), user.getRoles()))
+            .doOnNext(user -> {
+                this.exported.increment();
+                if (total.incrementAndGet() % this.batchSize == 0) {
+                    log.debug("users export progress: {}", BulkProgress.of(total.get(), start));
+                }
+            })
+            .doOnComplete(() -> log.info("exported users: {}", BulkProgress.of(total.get(), start)));
+
+        return ok().contentType(MediaType.APPLICATION_STREAM_JSON).body(exported, ExportedUser.class);
+    }
+
+    private User toUser(ImportedUser user) {
+        return User.builder()
+            .username(user.getUsername())
+            .password(this.passwordEncoder.encode(user.getPassword()))
+            .email(user.getEmail())
+            .active(user.isActive())
+            .roles(user.getRoles())
+            .build();
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class ImportedUser {
+        private String username;
+        private String password;
+        private String email;
+        private boolean active = true;
+        private List<String> roles = new ArrayList<>();
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class ExportedUser {
+        private String username;
+        private String email;
+        private boolean active;
+        private List<String> roles;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class BulkResult {
+
+        static final String CREATED = "created";
+        static final String FAILED = "failed";
+        static final String SKIPPED = "skipped";
+
+        // position of the user in the upload
+        private long index;
+        private String username;
+        // created, failed or skipped
+        private String status;
+        private String error;
+
+        static BulkResult failed(long index, String username, String error) {
+            return new BulkResult(index, username, FAILED, error);
+        }
+
+        @JsonIgnore
+        boolean isCreated() {
+            return CREATED.equals(this.status);
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class BulkProgress {
+        private long processed;
+        private long elapsedMillis;
+        private long perSecond;
+
+        static BulkProgress of(long processed, long start) {
+            long elapsed = elapsedMillis(start);
+            return new BulkProgress(processed, elapsed, elapsed == 0 ? processed : processed * 1000 / elapsed);
+        }
+    }
+
+}
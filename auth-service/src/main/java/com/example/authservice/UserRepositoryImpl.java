@@ -0,0 +1,199 @@
+package com.example.authservice;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.cassandra.ReactiveResultSet;
+import org.springframework.data.cassandra.ReactiveSession;
+import org.springframework.data.cassandra.core.convert.CassandraConverter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Cassandra access path for {@link User} built on prepared statements.
+ * <p>
+ * Every statement is prepared once and cached, bound statements carry the partition key as
+ * routing key and are sent token aware to a replica owning it. Scans are paged asynchronously
+ * by the driver, and the execution time of each statement is published as the
+ * {@code cassandra.statements} timer tagged with the statement name.
+ */
+@Slf4j
+class UserRepositoryImpl implements UserRepositoryCustom {
+
+    static final String METRIC_NAME = "cassandra.statements";
+
+    private static final String SELECT_BY_USERNAME = "SELECT * FROM users WHERE username = ?";
+    // NOTE, be very careful about ALLOW FILTERING in real world apps, this
+    // may affect scalability quite a lot. Filtering is efficient over primary
+    // keys, not on all generic columns. It can not be routed token aware either.
+    private static final String SELECT_BY_EMAIL = "SELECT * FROM users WHERE email = ? ALLOW FILTERING";
+    private static final String SELECT_ALL = "SELECT * FROM users";
+    private static final String SELECT_USERNAMES = "SELECT username FROM users";
+    private static final String SELECT_USERNAME = "SELECT username FROM users WHERE username = ?";
+    private static final String DELETE_BY_USERNAME = "DELETE FROM users WHERE username = ?";
+    private static final String INSERT = "INSERT INTO users (username, password, email, active, roles) VALUES (?, ?, ?, ?, ?)";
+
+    private static final int SCAN_FETCH_SIZE = 500;
+    private static final int MAX_BATCH_SIZE = 20;
+    private static final int DELETE_CONCURRENCY = 32;
+    private static final int LOOKUP_CONCURRENCY = 32;
+
+    private final ReactiveSession session;
+    private final CassandraConverter converter;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, PreparedStatement> statements = new ConcurrentHashMap<>();
+
+    public UserRepositoryImpl(ReactiveSession session, CassandraConverter converter, MeterRegistry meterRegistry) {
+        this.session = session;
+        this.converter = converter;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Mono<User> findByUsername(String username) {
+        return this.timed("findByUsername",
+            this.prepared(SELECT_BY_USERNAME)
+                .map(ps -> ps.bind(username).setIdempotent(true))
+                .flatMapMany(this::rows)
+                .next()
+        )
+            .map(this::toUser);
+    }
+
+    @Override
+    public Mono<User> findByEmail(String email) {
+        return this.timed("findByEmail",
+            this.prepared(SELECT_BY_EMAIL)
+                .map(ps -> ps.bind(email).setIdempotent(true))
+                .flatMapMany(this::rows)
+                .next()
+        )
+            .map(this::toUser);
+    }
+
+    @Override
+    public Flux<User> scanAll() {
+        return this.prepared(SELECT_ALL)
+            .map(ps -> ps.bind().setFetchSize(SCAN_FETCH_SIZE).setIdempotent(true))
+            .flatMapMany(this::rows)
+            .map(this::toUser);
+    }
+
+    // one token aware lookup per user, an IN query would go through a single coordinator
+    @Override
+    public Mono<Set<String>> findExistingUsernames(Collection<String> usernames) {
+        return this.timed("findExistingUsernames",
+            this.prepared(SELECT_USERNAME)
+                .flatMapMany(ps -> Flux.fromIterable(usernames)
+                    .flatMap(username -> this.rows(ps.bind(username).setIdempotent(true)), LOOKUP_CONCURRENCY))
+                .map(row -> row.getString("username"))
+                .collect(Collectors.toSet())
+        );
+    }
+
+    @Override
+    public Mono<Integer> insertAll(List<User> users) {
+        return this.prepared(INSERT)
+            .flatMapMany(ps -> Flux.fromIterable(this.batchesByReplicas(ps, users)))
+            .flatMap(batch -> this.timed("insertBatch", this.session.execute(batch)))
+            .then(Mono.just(users.size()));
+    }
+
+    // every user is its own partition, so unlogged batches are only built from users owned by
+    // the same replicas, the coordinator picked by the token aware policy then writes locally.
+    private List<BatchStatement> batchesByReplicas(PreparedStatement ps, List<User> users) {
+        Cluster cluster = this.session.getCluster();
+        Map<Set<Host>, List<BatchStatement>> batches = new HashMap<>();
+        for (User user : users) {
+            BoundStatement bound = ps.bind(user.getUsername(), user.getPassword(), user.getEmail(), user.isActive(), user.getRoles());
+            ByteBuffer routingKey = bound.getRoutingKey(
+                cluster.getConfiguration().getProtocolOptions().getProtocolVersion(),
+                cluster.getConfiguration().getCodecRegistry()
+            );
+            Set<Host> replicas = cluster.getMetadata().getReplicas(ps.getQueryKeyspace(), routingKey);
+
+            List<BatchStatement> group = batches.computeIfAbsent(replicas, key -> new ArrayList<>());
+            if (group.isEmpty() || group.get(group.size() - 1).size() >= MAX_BATCH_SIZE) {
+                group.add(new BatchStatement(BatchStatement.Type.UNLOGGED));
+            }
+            group.get(group.size() - 1).add(bound);
+        }
+
+        List<BatchStatement> result = new ArrayList<>();
+        batches.values().forEach(result::addAll);
+        return result;
+    }
+
+    @Override
+    public Mono<Void> deleteAll() {
+        Flux<String> usernames = this.prepared(SELECT_USERNAMES)
+            .map(ps -> ps.bind().setFetchSize(SCAN_FETCH_SIZE).setIdempotent(true))
+            .flatMapMany(this::rows)
+            .map(row -> row.getString("username"));
+
+        return this.timed("deleteAll",
+            usernames
+                .flatMap(this::deleteByUsername, DELETE_CONCURRENCY)
+                .count()
+        )
+            .doOnNext(count -> log.debug("deleted {} users", count))
+            .then();
+    }
+
+    private Mono<Void> deleteByUsername(String username) {
+        return this.timed("deleteByUsername",
+            this.prepared(DELETE_BY_USERNAME)
+                .map(ps -> ps.bind(username).setIdempotent(true))
+                .flatMap(this.session::execute)
+        )
+            .then();
+    }
+
+    private Mono<PreparedStatement> prepared(String cql) {
+        PreparedStatement statement = this.statements.get(cql);
+        if (statement != null) {
+            return Mono.just(statement);
+        }
+        // failures are not cached, the statement is prepared again by the next caller
+        return this.session.prepare(cql)
+            .map(prepared -> {
+                PreparedStatement existing = this.statements.putIfAbsent(cql, prepared);
+                return existing != null ? existing : prepared;
+            });
+    }
+
+    // the reactive result set fetches the next page asynchronously once the current one is consumed
+    private Flux<Row> rows(Statement statement) {
+        return this.session.execute(statement).flatMapMany(ReactiveResultSet::rows);
+    }
+
+    private User toUser(Row row) {
+        return this.converter.read(User.class, row);
+    }
+
+    private <T> Mono<T> timed(String statement, Mono<T> source) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(this.meterRegistry);
+            return source.doFinally(signal -> sample.stop(this.meterRegistry.timer(METRIC_NAME, "statement", statement)));
+        });
+    }
+
+}
@@ -6,14 +6,24 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.security.web.server.WebFilterChainProxy;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.RouterFunction;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.mockUser;
 import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.springSecurity;
@@ -28,6 +38,10 @@ public class AuthServiceApplicationTests {
 	RouterFunction<?> routerFunction;
 	@Autowired
 	WebFilterChainProxy springSecurityFilterChain;
+	@Autowired
+	UserRepository users;
+	@Autowired
+	PasswordEncoder passwordEncoder;
 
 	WebTestClient client;
 
@@ -92,6 +106,59 @@ public class AuthServiceApplicationTests {
 				.expectStatus().isEqualTo(HttpStatus.OK);
 	}
 
+	@Test
+	@WithMockUser
+	public void exportUsersWithoutAdminRoleWillReturn403(){
+		client
+				.get()
+				.uri("/users/export")
+				.exchange()
+				.expectStatus().isEqualTo(HttpStatus.FORBIDDEN);
+	}
+
+	@Test
+	@WithMockUser(roles = "ADMIN")
+	public void exportUsersWithAdminRoleWillBeOk(){
+		client
+				.get()
+				.uri("/users/export")
+				.accept(MediaType.APPLICATION_STREAM_JSON)
+				.exchange()
+				.expectStatus().isEqualTo(HttpStatus.OK)
+				.expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_STREAM_JSON);
+	}
+
+	@Test
+	@WithMockUser(roles = "ADMIN")
+	public void importUsersKeepsExistingUsersAndReportsInvalidLines(){
+		String username = "imported" + new Random().nextInt(Integer.MAX_VALUE);
+		String body = "{\"username\":\"" + username + "\",\"password\":\"secret\",\"roles\":[\"USER\"]}\n"
+				+ "{\"username\":\"admin\",\"password\":\"overwritten\",\"roles\":[\"USER\"]}\n"
+				+ "{\"username\":\"" + username + "-nopassword\"}\n"
+				+ "{\"username\":\"" + username + "\",\"password\":\"again\"}\n";
+
+		client
+				.post()
+				.uri("/users/import")
+				.contentType(MediaType.APPLICATION_STREAM_JSON)
+				.body(BodyInserters.fromObject(body))
+				.exchange()
+				.expectStatus().isEqualTo(HttpStatus.OK)
+				.expectBodyList(UserBulkHandler.BulkResult.class)
+				.consumeWith(result -> {
+					List<UserBulkHandler.BulkResult> results = result.getResponseBody();
+					assertEquals(4, results.size());
+					assertEquals(Arrays.asList(0L, 1L, 2L, 3L), results.stream().map(UserBulkHandler.BulkResult::getIndex).collect(Collectors.toList()));
+					assertEquals(Arrays.asList("created", "skipped", "failed", "failed"),
+							results.stream().map(UserBulkHandler.BulkResult::getStatus).collect(Collectors.toList()));
+				});
+
+		User admin = this.users.findByUsername("admin").block();
+		assertTrue(this.passwordEncoder.matches("password", admin.getPassword()));
+		assertTrue(admin.getRoles().contains("ADMIN"));
+		assertTrue(this.passwordEncoder.matches("secret", this.users.findByUsername(username).block().getPassword()));
+	}
+
 	private Consumer<Map<String, Object>> userCredentials() {
 		return basicAuthenticationCredentials("user", "password");
 	}
@@ -0,0 +1,78 @@
+package com.example.authservice;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ColumnMetadata;
+import com.datastax.driver.core.KeyspaceMetadata;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TableMetadata;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.cassandra.core.mapping.CassandraMappingContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CassandraSchemaValidatorTest {
+
+    Metadata metadata = mock(Metadata.class);
+    KeyspaceMetadata keyspace = mock(KeyspaceMetadata.class);
+    TableMetadata table = mock(TableMetadata.class);
+    CassandraSchemaValidator validator;
+
+    @Before
+    public void setup() {
+        Session session = mock(Session.class);
+        Cluster cluster = mock(Cluster.class);
+        when(session.getLoggedKeyspace()).thenReturn("demo");
+        when(session.getCluster()).thenReturn(cluster);
+        when(cluster.getMetadata()).thenReturn(this.metadata);
+        when(this.keyspace.getName()).thenReturn("demo");
+        when(this.table.getName()).thenReturn("users");
+        this.validator = new CassandraSchemaValidator(session, new CassandraMappingContext());
+    }
+
+    @Test
+    public void validSchema() {
+        when(this.metadata.getKeyspace("demo")).thenReturn(this.keyspace);
+        when(this.keyspace.getTable("users")).thenReturn(this.table);
+        when(this.table.getColumn(anyString())).thenReturn(mock(ColumnMetadata.class));
+
+        this.validator.afterPropertiesSet();
+    }
+
+    @Test
+    public void missingKeyspace() {
+        assertFailure("keyspace demo does not exist");
+    }
+
+    @Test
+    public void missingTable() {
+        when(this.metadata.getKeyspace("demo")).thenReturn(this.keyspace);
+
+        assertFailure("table users does not exist in keyspace demo");
+    }
+
+    @Test
+    public void missingColumn() {
+        when(this.metadata.getKeyspace("demo")).thenReturn(this.keyspace);
+        when(this.keyspace.getTable("users")).thenReturn(this.table);
+        when(this.table.getColumn(anyString())).thenReturn(mock(ColumnMetadata.class));
+        when(this.table.getColumn("roles")).thenReturn(null);
+
+        assertFailure("column roles does not exist in table users");
+    }
+
+    private void assertFailure(String message) {
+        try {
+            this.validator.afterPropertiesSet();
+            fail("the schema is not valid");
+        } catch (IllegalStateException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.example.authservice;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import reactor.test.StepVerifier;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs against the local Cassandra started by docker-compose.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+public class UserRepositoryTests {
+
+    @Autowired
+    UserRepository users;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    public void findByUsernameAndEmail() {
+        String username = "test" + new Random().nextInt(Integer.MAX_VALUE);
+        User user = User.builder().username(username).email(username + "@example.com").password("password").roles(Arrays.asList("USER")).build();
+
+        StepVerifier.create(this.users.save(user))
+            .expectNextCount(1)
+            .verifyComplete();
+
+        StepVerifier.create(this.users.findByUsername(username))
+            .expectNextMatches(u -> u.getEmail().equals(username + "@example.com") && u.getRoles().contains("USER"))
+            .verifyComplete();
+
+        StepVerifier.create(this.users.findByEmail(username + "@example.com"))
+            .expectNextMatches(u -> u.getUsername().equals(username))
+            .verifyComplete();
+
+        StepVerifier.create(this.users.findByUsername("noneexisted"))
+            .verifyComplete();
+
+        assertNotNull(this.meterRegistry.find(UserRepositoryImpl.METRIC_NAME).tag("statement", "findByUsername").timer());
+        assertTrue(this.meterRegistry.find(UserRepositoryImpl.METRIC_NAME).tag("statement", "findByUsername").timer().count() >= 2);
+    }
+
+    @Test
+    public void deleteAll() {
+        String username = "test" + new Random().nextInt(Integer.MAX_VALUE);
+        User user = User.builder().username(username).email(username + "@example.com").password("password").build();
+
+        StepVerifier.create(this.users.save(user).then(this.users.deleteAll()).then(this.users.findByUsername(username)))
+            .verifyComplete();
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.example.favoriteservice;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Removes the favorites of the posts deleted in post-service, which pushes their slugs and the
+ * time they were deleted at on the {@code favorites:cleanup} list.
+ * <p>
+ * A job is moved to {@code favorites:cleanup:processing} while it runs and moved back on startup if
+ * a replica stopped meanwhile, cleaning up twice is harmless.
+ * <p>
+ * The users who favorited a post are read in batches of {@code favorites.cleanup.batch-size},
+ * the post is removed from their favorites before they are removed from the favorites of the post,
+ * so an interrupted cleanup is picked up by the next one of the same post. Only the favorites made
+ * before the post was deleted are removed, the slug may already be taken by a new post.
+ * <p>
+ * The time of the deletion is read from the clock of post-service and compared with the scores of
+ * the favorites, which are times read from the clock of this service, so the clocks of the hosts
+ * are assumed to be synchronized (NTP). A skew of a few seconds only matters for a favorite made
+ * right before the deletion, which may be kept, or on a new post with the same slug right after
+ * it, which may be removed.
+ */
+@Component
+class FavoriteCleanup implements InitializingBean, DisposableBean {
+
+    static final String QUEUE = "favorites:cleanup";
+    static final String PROCESSING = "favorites:cleanup:processing";
+
+    private static final Logger log = LoggerFactory.getLogger(FavoriteCleanup.class);
+    private static final Duration POP_TIMEOUT = Duration.ofSeconds(5L);
+
+    private final ReactiveRedisTemplate<String, String> redis;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private Disposable job;
+
+    public FavoriteCleanup(ReactiveRedisConnectionFactory factory,
+                           ObjectMapper objectMapper,
+                           @Value("${favorites.cleanup.batch-size:500}") int batchSize) {
+        this.redis = new ReactiveRedisTemplate<>(factory, RedisSerializationContext.string());
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        this.job = this.recover()
+                .thenMany(Mono.defer(() -> this.redis.opsForList().rightPopAndLeftPush(QUEUE, PROCESSING, POP_TIMEOUT)).repeat())
+                .concatMap(job -> this.run(job).then(this.redis.opsForList().remove(PROCESSING, 1, job)))
+                .doOnError(e -> log.warn("favorites cleanup failed, restarting it: {}", e.getMessage()))
+                .retryWhen(errors -> errors.delayElements(Duration.ofSeconds(1L)))
+                .subscribe();
+    }
+
+    @Override
+    public void destroy() {
+        this.job.dispose();
+    }
+
+    // jobs left in progress by a replica which stopped
+    private Mono<Void> recover() {
+        return Mono.defer(() -> this.redis.opsForList().rightPopAndLeftPush(PROCESSING, QUEUE))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .repeat()
+                .takeWhile(Optional::isPresent)
+                .count()
+                .doOnNext(count -> {
+                    if (count > 0) {
+                        log.info("requeued {} interrupted favorites cleanups", count);
+                    }
+                })
+                .then();
+    }
+
+    private Mono<Long> run(String message) {
+        JsonNode cleanup;
+        try {
+            cleanup = this.objectMapper.readTree(message);
+        } catch (IOException e) {
+            log.warn("dropped malformed favorites cleanup: {}", message);
+            return Mono.empty();
+        }
+        return this.cleanup(cleanup.path("slug").asText(), cleanup.path("deletedAt").asLong());
+    }
+
+    Mono<Long> cleanup(String slug, long deletedAt) {
+        String postKey = "posts:" + slug + ":favorites";
+        Range<Double> before = Range.of(Range.Bound.unbounded(), Range.Bound.inclusive((double) deletedAt));
+        RedisZSetCommands.Limit batch = RedisZSetCommands.Limit.limit().count(this.batchSize);
+
+        return Mono
+                .defer(() -> this.redis.opsForZSet().rangeByScore(postKey, before, batch)
+                        .collectList()
+                        .flatMap(users -> users.isEmpty()
+                                ? Mono.just(0L)
+                                : Flux.fromIterable(users)
+                                .flatMap(user -> this.redis.opsForZSet().remove("users:" + user + ":favorites", slug))
+                                .then(this.redis.opsForZSet().remove(postKey, users.toArray()))))
+                .repeat()
+                .takeWhile(removed -> removed > 0)
+                .reduce(0L, Long::sum)
+                .doOnNext(removed -> log.info("removed {} favorites of deleted post {}", removed, slug));
+    }
+
+}
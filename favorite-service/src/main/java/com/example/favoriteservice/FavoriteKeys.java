@@ -0,0 +1,100 @@
+package com.example.favoriteservice;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The Redis keys and members of the favorites, encoded in UTF-8.
+ * <p>
+ * A key is written straight into a buffer of its exact length, without concatenating a
+ * {@code String} and copying its bytes. The buffer is not pooled, Lettuce copies it into its own
+ * pooled buffer when the command is written, and does not tell when that is.
+ */
+final class FavoriteKeys {
+
+    private static final byte[] POSTS = "posts:".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] USERS = "users:".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FAVORITES = ":favorites".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NONE = {};
+
+    private FavoriteKeys() {
+    }
+
+    /**
+     * {@code posts:{slug}:favorites}, the users who favorited the post.
+     */
+    static ByteBuffer post(String slug) {
+        return encode(POSTS, slug, FAVORITES);
+    }
+
+    /**
+     * {@code users:{name}:favorites}, the posts favorited by the user.
+     */
+    static ByteBuffer user(String name) {
+        return encode(USERS, name, FAVORITES);
+    }
+
+    /**
+     * A username or slug, as a member of the sets.
+     */
+    static ByteBuffer member(String value) {
+        return encode(NONE, value, NONE);
+    }
+
+    private static ByteBuffer encode(byte[] prefix, String value, byte[] suffix) {
+        ByteBuffer buffer = ByteBuffer.allocate(prefix.length + length(value) + suffix.length);
+        buffer.put(prefix);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            } else if (!Character.isSurrogate(c)) {
+                buffer.put((byte) (0xe0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            } else if (isPair(value, i)) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xf0 | cp >> 18));
+                buffer.put((byte) (0x80 | cp >> 12 & 0x3f));
+                buffer.put((byte) (0x80 | cp >> 6 & 0x3f));
+                buffer.put((byte) (0x80 | cp & 0x3f));
+            } else {
+                // an unpaired surrogate, replaced as String.getBytes does
+                buffer.put((byte) '?');
+            }
+        }
+        buffer.put(suffix);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (!Character.isSurrogate(c)) {
+                length += 3;
+            } else if (isPair(value, i)) {
+                length += 4;
+                i++;
+            } else {
+                length += 1;
+            }
+        }
+        return length;
+    }
+
+    private static boolean isPair(String value, int i) {
+        return Character.isHighSurrogate(value.charAt(i))
+                && i + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(i + 1));
+    }
+
+}
@@ -0,0 +1,173 @@
+package com.example.favoriteservice;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.springframework.web.reactive.function.server.ServerResponse.badRequest;
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+/**
+ * Pages of the members of a favorites sorted set, newest first.
+ * <p>
+ * Favorites are scored with the time they were made at, in milliseconds. A page is selected by the
+ * {@code cursor} and {@code size} request params, the size is capped at
+ * {@code favorites.page.max-size}. The cursor is the score of the last member returned and the
+ * number of members returned with that score, so favorites made in the same millisecond are not
+ * skipped. The link to the next page is returned in the {@code Link} header, only one page is read
+ * from Redis at a time.
+ * <p>
+ * The page is written as a JSON array of strings straight from the bytes read from Redis into a
+ * buffer of the response, the members are not decoded.
+ */
+@Component
+class FavoritePages {
+
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    private final ReactiveRedisConnection conn;
+    private final int defaultSize;
+    private final int maxSize;
+
+    public FavoritePages(ReactiveRedisConnectionFactory factory,
+                         @Value("${favorites.page.default-size:20}") int defaultSize,
+                         @Value("${favorites.page.max-size:100}") int maxSize) {
+        this.conn = factory.getReactiveConnection();
+        this.defaultSize = defaultSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Responds with the requested page of the members of the sorted set, or 400 if the
+     * {@code cursor} or {@code size} is invalid.
+     */
+    public Mono<ServerResponse> page(ServerRequest req, ByteBuffer key) {
+        return Mono
+                .<ServerResponse>defer(() -> {
+                    int size = req.queryParam("size")
+                            .map(Integer::parseInt)
+                            .map(s -> Math.max(1, Math.min(s, this.maxSize)))
+                            .orElse(this.defaultSize);
+                    Cursor cursor = req.queryParam("cursor").map(Cursor::decode).orElse(Cursor.FIRST);
+
+                    return this.conn.zSetCommands()
+                            .zRevRangeByScoreWithScores(
+                                    key.duplicate(),
+                                    cursor.range(),
+                                    RedisZSetCommands.Limit.limit().offset(cursor.skip).count(size + 1)
+                            )
+                            .collectList()
+                            .flatMap(found -> {
+                                List<RedisZSetCommands.Tuple> page = found.size() > size ? found.subList(0, size) : found;
+                                ServerResponse.BodyBuilder response = ok().contentType(MediaType.APPLICATION_JSON_UTF8);
+                                if (found.size() > size) {
+                                    response.header(HttpHeaders.LINK, "<" + next(req, cursor.next(page)) + ">; rel=\"next\"");
+                                }
+                                return response.body((message, context) -> message.writeWith(Mono.fromSupplier(() -> json(message.bufferFactory(), page))));
+                            });
+                })
+                .onErrorResume(IllegalArgumentException.class, e -> badRequest().syncBody(e.getMessage()));
+    }
+
+    // the members are UTF-8 already, only quotes, backslashes and control characters are escaped
+    static DataBuffer json(DataBufferFactory factory, List<RedisZSetCommands.Tuple> page) {
+        int capacity = 2;
+        for (RedisZSetCommands.Tuple tuple : page) {
+            capacity += tuple.getValue().length + 3;
+        }
+        DataBuffer buffer = factory.allocateBuffer(capacity);
+        buffer.write((byte) '[');
+        for (int i = 0; i < page.size(); i++) {
+            if (i > 0) {
+                buffer.write((byte) ',');
+            }
+            buffer.write((byte) '"');
+            byte[] member = page.get(i).getValue();
+            int from = 0;
+            for (int j = 0; j < member.length; j++) {
+                byte b = member[j];
+                if (b == '"' || b == '\\' || (b >= 0 && b < 0x20)) {
+                    buffer.write(member, from, j - from);
+                    buffer.write((byte) '\\');
+                    if (b < 0x20) {
+                        buffer.write((byte) 'u').write((byte) '0').write((byte) '0').write(HEX[b >> 4]).write(HEX[b & 0xf]);
+                    } else {
+                        buffer.write(b);
+                    }
+                    from = j + 1;
+                }
+            }
+            buffer.write(member, from, member.length - from);
+            buffer.write((byte) '"');
+        }
+        buffer.write((byte) ']');
+        return buffer;
+    }
+
+    private static String next(ServerRequest req, Cursor cursor) {
+        return UriComponentsBuilder.fromUri(req.uri())
+                .replaceQueryParam("cursor", cursor.encode())
+                .build(true)
+                .toUriString();
+    }
+
+    static final class Cursor {
+
+        static final Cursor FIRST = new Cursor(Double.POSITIVE_INFINITY, 0);
+
+        final double score;
+        final int skip;
+
+        Cursor(double score, int skip) {
+            this.score = score;
+            this.skip = skip;
+        }
+
+        /**
+         * @throws IllegalArgumentException if the token is not a cursor
+         */
+        static Cursor decode(String token) {
+            int separator = token.indexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("invalid cursor: " + token);
+            }
+            Cursor cursor = new Cursor(Double.parseDouble(token.substring(0, separator)), Integer.parseInt(token.substring(separator + 1)));
+            if (cursor.skip < 0 || Double.isNaN(cursor.score)) {
+                throw new IllegalArgumentException("invalid cursor: " + token);
+            }
+            return cursor;
+        }
+
+        String encode() {
+            return (this.score == Math.rint(this.score) ? Long.toString((long) this.score) : Double.toString(this.score)) + ":" + this.skip;
+        }
+
+        Range<Double> range() {
+            return this.score == Double.POSITIVE_INFINITY
+                    ? Range.unbounded()
+                    : Range.of(Range.Bound.unbounded(), Range.Bound.inclusive(this.score));
+        }
+
+        // after the last member of the page
+        Cursor next(List<RedisZSetCommands.Tuple> page) {
+            double last = page.get(page.size() - 1).getScore();
+            int skip = (int) page.stream().filter(t -> t.getScore() == last).count();
+            return new Cursor(last, last == this.score ? this.skip + skip : skip);
+        }
+    }
+
+}
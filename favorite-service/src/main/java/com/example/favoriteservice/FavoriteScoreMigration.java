@@ -0,0 +1,130 @@
+package com.example.favoriteservice;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Scores the favorites made before they were scored with their time, which all have the score 1,
+ * so {@link FavoritePages} lists them after the newer ones, in their former order.
+ * <p>
+ * Runs in the background at startup, over the keys found by {@code SCAN}. The favorites of a set
+ * are scored in batches of {@code favorites.migration.batch-size} by a script, just below
+ * {@link #MIGRATED_BELOW} and after the favorites of the set scored by previous batches, so
+ * an interrupted migration, or one run by several instances at once, picks up where it stopped.
+ * A completed migration is recorded in the {@code favorites:migrations:scores} key and not run
+ * again, favorites are scored with their time since.
+ * <p>
+ * Replicas of the former version still score new favorites with 1, the ones they make after the
+ * migration completed are listed last. Stop them before the first replica of this version starts,
+ * or delete the key once they are gone so the migration runs again at the next start.
+ */
+@Component
+class FavoriteScoreMigration implements InitializingBean, DisposableBean {
+
+    // 2001-09-09 in milliseconds, before any favorite scored with its time
+    static final long MIGRATED_BELOW = 1_000_000_000_000L;
+    static final String COMPLETED = "favorites:migrations:scores";
+
+    private static final Logger log = LoggerFactory.getLogger(FavoriteScoreMigration.class);
+    private static final RedisScript<Long> MIGRATE_SCRIPT = new DefaultRedisScript<>(
+            "local legacy = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', '1', 'LIMIT', 0, ARGV[2]) "
+                    + "local migrated = redis.call('ZCOUNT', KEYS[1], '(1', '(' .. ARGV[1]) "
+                    + "for i, member in ipairs(legacy) do "
+                    + "redis.call('ZADD', KEYS[1], 'XX', ARGV[1] - migrated - i, member) "
+                    + "end "
+                    + "return #legacy",
+            Long.class
+    );
+
+    private final RedisConnectionFactory connectionFactory;
+    private final ReactiveRedisTemplate<String, String> redis;
+    private final int batchSize;
+    private Disposable job;
+
+    public FavoriteScoreMigration(RedisConnectionFactory connectionFactory,
+                                  ReactiveRedisConnectionFactory factory,
+                                  @Value("${favorites.migration.batch-size:1000}") int batchSize) {
+        this.connectionFactory = connectionFactory;
+        this.redis = new ReactiveRedisTemplate<>(factory, RedisSerializationContext.string());
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        this.job = this.redis.hasKey(COMPLETED)
+                .filter(completed -> !completed)
+                .flatMap(run -> Flux.concat(this.keys("posts:*:favorites"), this.keys("users:*:favorites"))
+                        .concatMap(this::migrate)
+                        .reduce(0L, Long::sum)
+                        .flatMap(migrated -> this.redis.opsForValue().set(COMPLETED, Long.toString(System.currentTimeMillis()))
+                                .then(Mono.just(migrated))))
+                .filter(migrated -> migrated > 0)
+                .subscribe(
+                        migrated -> log.info("scored {} favorites made before favorites were scored with their time", migrated),
+                        e -> log.warn("favorites score migration failed, it is resumed at the next start: {}", e.getMessage())
+                );
+    }
+
+    @Override
+    public void destroy() {
+        this.job.dispose();
+    }
+
+    Mono<Long> migrate(String key) {
+        return Mono
+                .defer(() -> this.redis
+                        .execute(MIGRATE_SCRIPT, Collections.singletonList(key), Arrays.asList(Long.toString(MIGRATED_BELOW), Integer.toString(this.batchSize)))
+                        .next())
+                .repeat()
+                .takeWhile(migrated -> migrated > 0)
+                .reduce(0L, Long::sum);
+    }
+
+    // there is no reactive SCAN in this version, the cursor is read off the event loops
+    private Flux<String> keys(String pattern) {
+        return Flux
+                .using(
+                        this.connectionFactory::getConnection,
+                        connection -> Flux.using(
+                                () -> connection.scan(ScanOptions.scanOptions().match(pattern).count(this.batchSize).build()),
+                                cursor -> Flux.fromIterable(() -> cursor),
+                                FavoriteScoreMigration::close
+                        ),
+                        RedisConnection::close
+                )
+                .map(key -> new String(key, StandardCharsets.UTF_8))
+                .subscribeOn(Schedulers.elastic());
+    }
+
+    private static void close(Cursor<byte[]> cursor) {
+        try {
+            cursor.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
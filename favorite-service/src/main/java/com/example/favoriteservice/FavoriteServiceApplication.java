@@ -1,13 +1,18 @@
 package com.example.favoriteservice;
 
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.context.annotation.Bean;
-import org.springframework.data.domain.Range;
 import org.springframework.data.redis.connection.ReactiveRedisConnection;
 import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.web.server.SecurityWebFilterChain;
@@ -18,14 +23,22 @@ import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import org.springframework.web.server.session.HeaderWebSessionIdResolver;
 import org.springframework.web.server.session.WebSessionIdResolver;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import static org.springframework.web.reactive.function.server.RequestPredicates.*;
 import static org.springframework.web.reactive.function.server.RouterFunctions.nest;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+import static org.springframework.web.reactive.function.server.ServerResponse.badRequest;
 import static org.springframework.web.reactive.function.server.ServerResponse.noContent;
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
 
@@ -62,7 +75,9 @@ public class FavoriteServiceApplication {
                 .andRoute(POST("/{slug}/favorites"), favoriteHandler::favorite)
                 .andRoute(DELETE("/{slug}/favorites"), favoriteHandler::unfavorite);
 
-        return nest(path("/posts"), postsRoutes)
+        // outside of /posts/{slug}, which a post could take as slug
+        return route(GET("/favorites/statuses"), favoriteHandler::statuses)
+                .andNest(path("/posts"), postsRoutes)
                 .andNest(path("/users"), usersRoutes);
     }
 }
@@ -70,10 +85,80 @@ public class FavoriteServiceApplication {
 @Component
 class FavoriteHandler {
 
-    private ReactiveRedisConnection conn;
+    // consumed by post-service, which keeps the favorite count of every post
+    static final String FAVORITE_EVENTS = "favorites:events";
+
+    // the indexes of the post and of the user are updated together, and only actual changes
+    // are pushed, so favoriting a post twice or retrying a request does not count twice.
+    // Favorites are scored with the time they were first made at, see FavoritePages
+    static final RedisScript<Long> FAVORITE_SCRIPT = new DefaultRedisScript<>(
+            "local added = redis.call('ZADD', KEYS[1], 'NX', ARGV[1], ARGV[2]) "
+                    + "redis.call('ZADD', KEYS[2], 'NX', ARGV[1], ARGV[3]) "
+                    + "if added == 1 then redis.call('LPUSH', KEYS[3], ARGV[4]) end "
+                    + "return added",
+            Long.class
+    );
+    static final RedisScript<Long> UNFAVORITE_SCRIPT = new DefaultRedisScript<>(
+            "local removed = redis.call('ZREM', KEYS[1], ARGV[2]) "
+                    + "redis.call('ZREM', KEYS[2], ARGV[3]) "
+                    + "if removed == 1 then redis.call('LPUSH', KEYS[3], ARGV[4]) end "
+                    + "return removed",
+            Long.class
+    );
 
-    public FavoriteHandler(ReactiveRedisConnectionFactory factory) {
+    private ReactiveRedisConnection conn;
+    private ReactiveRedisTemplate<String, String> redis;
+    private FavoritePages pages;
+    private ObjectMapper objectMapper;
+    private int maxSlugs;
+
+    public FavoriteHandler(ReactiveRedisConnectionFactory factory,
+                           FavoritePages pages,
+                           ObjectMapper objectMapper,
+                           @Value("${favorites.statuses.max-slugs:100}") int maxSlugs) {
         this.conn = factory.getReactiveConnection();
+        this.redis = new ReactiveRedisTemplate<>(factory, RedisSerializationContext.string());
+        this.pages = pages;
+        this.objectMapper = objectMapper;
+        this.maxSlugs = maxSlugs;
+    }
+
+    /**
+     * The number of favorites of the posts of the {@code slug} params and whether the current user
+     * favorited them, by slug, for the lists of posts.
+     */
+    public Mono<ServerResponse> statuses(ServerRequest req) {
+
+        List<String> slugs = req.queryParams().getOrDefault("slug", Collections.emptyList())
+                .stream()
+                .distinct()
+                .collect(Collectors.toList());
+        if (slugs.isEmpty() || slugs.size() > this.maxSlugs) {
+            return badRequest().syncBody("1 to " + this.maxSlugs + " slug params expected");
+        }
+        return req.principal()
+                .map(p -> p.getName())
+                .flatMap(
+                        // every command is sent before the first reply is read, the connection
+                        // pipelines them in a single round trip
+                        name -> Flux.fromIterable(slugs)
+                                .flatMapSequential(slug -> {
+                                    ByteBuffer key = FavoriteKeys.post(slug);
+                                    return Mono.zip(
+                                            this.conn.zSetCommands().zCard(key),
+                                            this.conn.zSetCommands().zScore(key.duplicate(), FavoriteKeys.member(name)).hasElement(),
+                                            (count, favorited) -> {
+                                                Map<String, Object> status = new HashMap<>();
+                                                status.put("count", count);
+                                                status.put("favorited", favorited);
+                                                return status;
+                                            }
+                                    );
+                                }, slugs.size())
+                                .zipWithIterable(slugs)
+                                .collect(LinkedHashMap::new, (statuses, status) -> statuses.put(status.getT2(), status.getT1()))
+                )
+                .flatMap(f -> ok().body(BodyInserters.fromObject(f)));
     }
 
     public Mono<ServerResponse> favorited(ServerRequest req) {
@@ -81,15 +166,12 @@ class FavoriteHandler {
         String slug = req.pathVariable("slug");
         return req.principal()
                 .map(p -> p.getName())
+                // a single member lookup, whatever the number of favorites of the post
                 .flatMap(
                         name -> this.conn.zSetCommands()
-                                .zRange(
-                                        ByteBuffer.wrap(("posts:" + slug + ":favorites").getBytes()),
-                                        Range.of(Range.Bound.inclusive(0L), Range.Bound.inclusive(-1L))
-                                )
-                                .map(this::toString)
-                                .collectList()
-                                .map(f -> Collections.singletonMap("favorited", f.contains(name)))
+                                .zScore(FavoriteKeys.post(slug), FavoriteKeys.member(name))
+                                .hasElement()
+                                .map(f -> Collections.singletonMap("favorited", f))
                 )
                 .flatMap(f -> ok().body(BodyInserters.fromObject(f)));
 
@@ -98,30 +180,14 @@ class FavoriteHandler {
     public Mono<ServerResponse> all(ServerRequest req) {
 
         String slug = req.pathVariable("slug");
-        return this.conn.zSetCommands()
-                .zRange(
-                        ByteBuffer.wrap(("posts:" + slug + ":favorites").getBytes()),
-                        Range.of(Range.Bound.inclusive(0L), Range.Bound.inclusive(-1L))
-                )
-                .map(this::toString)
-                .collectList()
-                .flatMap(f -> ok().body(BodyInserters.fromObject(f)));
+        return this.pages.page(req, FavoriteKeys.post(slug));
     }
 
     public Mono<ServerResponse> favoritedPosts(ServerRequest req) {
 
         return req.principal()
                 .map(p -> p.getName())
-                .flatMap(
-                        name -> this.conn.zSetCommands()
-                                .zRange(
-                                        ByteBuffer.wrap(("users:" + name + ":favorites").getBytes()),
-                                        Range.of(Range.Bound.inclusive(0L), Range.Bound.inclusive(-1L))
-                                )
-                                .map(this::toString)
-                                .collectList()
-                )
-                .flatMap(f -> ok().body(BodyInserters.fromObject(f)));
+                .flatMap(name -> this.pages.page(req, FavoriteKeys.user(name)));
     }
 
     public Mono<ServerResponse> favorite(ServerRequest req) {
@@ -129,11 +195,8 @@ class FavoriteHandler {
         String slug = req.pathVariable("slug");
         return req.principal()
                 .map(p -> p.getName())
-                .flatMap(
-                        name -> this.conn.zSetCommands()
-                                .zAdd(ByteBuffer.wrap(("posts:" + slug + ":favorites").getBytes()), 1.0D, ByteBuffer.wrap(name.getBytes()))
-                                .then(this.conn.zSetCommands().zAdd(ByteBuffer.wrap(("users:" + name + ":favorites").getBytes()), 1.0D, ByteBuffer.wrap(slug.getBytes())))
-                )
+                .flatMap(name -> this.change(FAVORITE_SCRIPT, slug, name, 1L))
+                .then(Mono.just(slug))
                 .flatMap(f -> ok().build());
     }
 
@@ -142,19 +205,26 @@ class FavoriteHandler {
         String slug = req.pathVariable("slug");
         return req.principal()
                 .map(p -> p.getName())
-                .flatMap(
-                        name -> this.conn.zSetCommands()
-                                .zRem(ByteBuffer.wrap(("posts:" + slug + ":favorites").getBytes()), ByteBuffer.wrap(name.getBytes()))
-                                .then(this.conn.zSetCommands().zRem(ByteBuffer.wrap(("users:" + name + ":favorites").getBytes()), ByteBuffer.wrap(slug.getBytes())))
-                )
+                .flatMap(name -> this.change(UNFAVORITE_SCRIPT, slug, name, -1L))
+                .then(Mono.just(slug))
                 .flatMap(f -> noContent().build());
 
     }
 
-    private String toString(ByteBuffer byteBuffer) {
-        byte[] bytes = new byte[byteBuffer.remaining()];
-        byteBuffer.get(bytes);
-        return new String(bytes);
+    // both indexes and the event in one round trip, true if the favorites of the post changed
+    Mono<Boolean> change(RedisScript<Long> script, String slug, String name, long delta) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("slug", slug);
+        event.put("delta", delta);
+        return Mono.fromCallable(() -> this.objectMapper.writeValueAsString(event))
+                .flatMap(message -> this.redis
+                        .execute(
+                                script,
+                                Arrays.asList("posts:" + slug + ":favorites", "users:" + name + ":favorites", FAVORITE_EVENTS),
+                                Arrays.asList(Long.toString(System.currentTimeMillis()), name, slug, message)
+                        )
+                        .next())
+                .map(changed -> changed > 0);
     }
 }
 
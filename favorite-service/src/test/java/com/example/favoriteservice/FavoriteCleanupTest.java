@@ -0,0 +1,80 @@
+package com.example.favoriteservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FavoriteCleanupTest {
+
+    RedisStandIn redis;
+    LettuceConnectionFactory factory;
+    FavoriteCleanup cleanup;
+
+    @Before
+    public void setup() throws Exception {
+        this.redis = RedisStandIn.start();
+        this.factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", this.redis.port()));
+        this.factory.afterPropertiesSet();
+        this.cleanup = new FavoriteCleanup(this.factory, new ObjectMapper(), 1);
+    }
+
+    @After
+    public void tearDown() {
+        this.factory.destroy();
+        this.redis.close();
+    }
+
+    @Test
+    public void favoritesOfANewPostWithTheSameSlugAreKept() {
+        // made before the scores were times, before the deletion, and after it on the new post
+        this.favorite("user1", 1L);
+        this.favorite("user2", 1_000L);
+        this.favorite("user3", 3_000L);
+
+        assertEquals(Long.valueOf(2L), this.cleanup.cleanup("some-post", 2_000L).block());
+
+        assertNull(this.redis.execute("ZSCORE", "posts:some-post:favorites", "user1"));
+        assertNull(this.redis.execute("ZSCORE", "posts:some-post:favorites", "user2"));
+        assertNull(this.redis.execute("ZSCORE", "users:user1:favorites", "some-post"));
+        assertNull(this.redis.execute("ZSCORE", "users:user2:favorites", "some-post"));
+        assertEquals("3000", this.redis.execute("ZSCORE", "posts:some-post:favorites", "user3"));
+        assertEquals("3000", this.redis.execute("ZSCORE", "users:user3:favorites", "some-post"));
+    }
+
+    @Test
+    public void queuedAndInterruptedCleanupsAreRun() throws Exception {
+        this.favorite("user1", 1_000L);
+        this.redis.execute("ZADD", "posts:other-post:favorites", "1000", "user1");
+        this.redis.execute("ZADD", "users:user1:favorites", "1000", "other-post");
+        // left by a replica which stopped in the middle of it
+        this.redis.execute("LPUSH", FavoriteCleanup.PROCESSING, "{\"slug\":\"some-post\",\"deletedAt\":2000}");
+        this.redis.execute("LPUSH", FavoriteCleanup.QUEUE, "{\"slug\":\"other-post\",\"deletedAt\":2000}");
+
+        this.cleanup.afterPropertiesSet();
+        try {
+            for (int i = 0; i < 100 && !(Long.valueOf(0L).equals(this.redis.execute("ZCARD", "users:user1:favorites"))
+                    && Long.valueOf(0L).equals(this.redis.execute("LLEN", FavoriteCleanup.PROCESSING))); i++) {
+                Thread.sleep(50L);
+            }
+        } finally {
+            this.cleanup.destroy();
+        }
+
+        assertNull(this.redis.execute("ZSCORE", "users:user1:favorites", "some-post"));
+        assertNull(this.redis.execute("ZSCORE", "users:user1:favorites", "other-post"));
+        assertEquals(0L, this.redis.execute("LLEN", FavoriteCleanup.QUEUE));
+        assertEquals(0L, this.redis.execute("LLEN", FavoriteCleanup.PROCESSING));
+    }
+
+    private void favorite(String user, long time) {
+        this.redis.execute("ZADD", "posts:some-post:favorites", Long.toString(time), user);
+        this.redis.execute("ZADD", "users:" + user + ":favorites", Long.toString(time), "some-post");
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.example.favoriteservice;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class FavoriteKeysTest {
+
+    // 1-byte, quote and backslash, control, 2-byte, 3-byte, 4-byte, unpaired high and low surrogates
+    static final String[] VALUES = {
+            "",
+            "some-post",
+            "us\"er\\1",
+            "user\u0001\n\u007f",
+            "us\u00e9r-\u07ff",
+            "\u0800\u4e2d\uffff",
+            "\uD83D\uDE00\uDBFF\uDFFF",
+            "a\uD83D",
+            "\uD83Db",
+            "\uDE00a",
+            "\uDE00\uD83D"
+    };
+
+    @Test
+    public void keysAreEncodedAsStringGetBytes() {
+        for (String value : VALUES) {
+            assertArrayEquals(value, utf8("posts:" + value + ":favorites"), bytes(FavoriteKeys.post(value)));
+            assertArrayEquals(value, utf8("users:" + value + ":favorites"), bytes(FavoriteKeys.user(value)));
+            assertArrayEquals(value, utf8(value), bytes(FavoriteKeys.member(value)));
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.example.favoriteservice;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.redis.connection.DefaultTuple;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class FavoritePagesTest {
+
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void favoritesMadeInTheSameMillisecondAreNotSkipped() throws Exception {
+        RedisStandIn redis = RedisStandIn.start();
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", redis.port()));
+        factory.afterPropertiesSet();
+        try {
+            FavoritePages pages = new FavoritePages(factory, 20, 100);
+            long[] times = {5L, 4L, 4L, 4L, 4L, 4L, 3L, 2L, 2L, 1L};
+            for (int i = 0; i < times.length; i++) {
+                redis.execute("ZADD", "posts:some-post:favorites", Long.toString(times[i]), "user" + i);
+            }
+            List<String> all = this.members(page(pages, null, 100));
+            assertEquals(times.length, all.size());
+
+            for (int size = 1; size <= times.length; size++) {
+                List<String> paged = new ArrayList<>();
+                String cursor = null;
+                do {
+                    ServerResponse page = page(pages, cursor, size);
+                    paged.addAll(this.members(page));
+                    cursor = next(page);
+                } while (cursor != null && paged.size() <= times.length);
+
+                assertEquals("pages of " + size, all, paged);
+            }
+        } finally {
+            factory.destroy();
+            redis.close();
+        }
+    }
+
+    @Test
+    public void cursorsAreEncodedAndDecoded() {
+        for (FavoritePages.Cursor cursor : new FavoritePages.Cursor[]{
+                new FavoritePages.Cursor(1_500_000_000_000d, 0),
+                new FavoritePages.Cursor(1_500_000_000_000d, 3),
+                new FavoritePages.Cursor(0.5d, 1),
+                new FavoritePages.Cursor(-2d, 2)}) {
+            FavoritePages.Cursor decoded = FavoritePages.Cursor.decode(cursor.encode());
+
+            assertEquals(cursor.encode(), cursor.score, decoded.score, 0d);
+            assertEquals(cursor.encode(), cursor.skip, decoded.skip);
+        }
+        assertEquals("1500000000000:3", new FavoritePages.Cursor(1_500_000_000_000d, 3).encode());
+    }
+
+    @Test
+    public void invalidCursorsAreRejected() {
+        for (String token : new String[]{"", "1500000000000", "a:1", "1:a", "1:-1", "NaN:0"}) {
+            try {
+                FavoritePages.Cursor.decode(token);
+                fail("decoded " + token);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void nextCursorCountsTheMembersWithTheLastScore() {
+        FavoritePages.Cursor first = FavoritePages.Cursor.FIRST.next(tuples(5d, 4d, 4d));
+        assertEquals(4d, first.score, 0d);
+        assertEquals(2, first.skip);
+
+        // still in the same millisecond, the members of the former pages are skipped too
+        FavoritePages.Cursor second = first.next(tuples(4d, 4d));
+        assertEquals(4d, second.score, 0d);
+        assertEquals(4, second.skip);
+
+        FavoritePages.Cursor third = second.next(tuples(4d, 3d));
+        assertEquals(3d, third.score, 0d);
+        assertEquals(1, third.skip);
+    }
+
+    @Test
+    public void membersAreWrittenAsJackson() throws Exception {
+        // Jackson escapes control characters and 4-byte characters, they are compared below
+        List<String> members = Arrays.stream(FavoriteKeysTest.VALUES)
+                .filter(value -> value.chars().noneMatch(c -> c < 0x20 || Character.isSurrogate((char) c)))
+                .collect(Collectors.toList());
+
+        assertArrayEquals(this.objectMapper.writeValueAsBytes(utf8(members)), json(members));
+        assertArrayEquals(this.objectMapper.writeValueAsBytes(Collections.emptyList()), json(Collections.emptyList()));
+    }
+
+    @Test
+    public void controlCharactersAreEscaped() throws Exception {
+        List<String> members = Arrays.asList("user\u0000", "\u0001\n\t\u001f\u007f", "\"\\\u0010\"");
+
+        assertEquals("[\"user\\u0000\",\"\\u0001\\u000a\\u0009\\u001f\u007f\",\"\\\"\\\\\\u0010\\\"\"]",
+                new String(json(members), StandardCharsets.UTF_8));
+        assertEquals(members, this.objectMapper.readValue(json(members), new TypeReference<List<String>>() {
+        }));
+    }
+
+    @Test
+    public void fourByteCharactersAndUnpairedSurrogatesAreWrittenAsTheirBytes() {
+        for (String member : new String[]{"\uD83D\uDE00\uDBFF\uDFFF", "a\uD83D", "\uDE00\uD83D"}) {
+            byte[] bytes = member.getBytes(StandardCharsets.UTF_8);
+            byte[] expected = new byte[bytes.length + 4];
+            expected[0] = '[';
+            expected[1] = '"';
+            System.arraycopy(bytes, 0, expected, 2, bytes.length);
+            expected[bytes.length + 2] = '"';
+            expected[bytes.length + 3] = ']';
+
+            assertArrayEquals(member, expected, json(Collections.singletonList(member)));
+        }
+    }
+
+    @Test
+    public void everyValueIsReadBackAsItsUtf8Encoding() throws Exception {
+        List<String> members = Arrays.asList(FavoriteKeysTest.VALUES);
+
+        assertEquals(utf8(members), this.objectMapper.readValue(json(members), new TypeReference<List<String>>() {
+        }));
+    }
+
+    private static ServerResponse page(FavoritePages pages, String cursor, int size) {
+        MockServerRequest.Builder request = Responses.request("user0")
+                .uri(URI.create("/posts/some-post/favorites"))
+                .queryParam("size", Integer.toString(size));
+        if (cursor != null) {
+            request.queryParam("cursor", cursor);
+        }
+        return pages.page(request.build(), FavoriteKeys.post("some-post")).block();
+    }
+
+    private List<String> members(ServerResponse page) throws Exception {
+        return this.objectMapper.readValue(Responses.render(Mono.just(page)), new TypeReference<List<String>>() {
+        });
+    }
+
+    // the cursor in the link to the next page, if any
+    private static String next(ServerResponse page) {
+        String link = page.headers().getFirst(HttpHeaders.LINK);
+        if (link == null) {
+            return null;
+        }
+        return UriComponentsBuilder.fromUriString(link.substring(1, link.indexOf('>'))).build().getQueryParams().getFirst("cursor");
+    }
+
+    private static List<RedisZSetCommands.Tuple> tuples(double... scores) {
+        return Arrays.stream(scores)
+                .mapToObj(score -> (RedisZSetCommands.Tuple) new DefaultTuple(new byte[0], score))
+                .collect(Collectors.toList());
+    }
+
+    // what Redis returns for the members, unpaired surrogates are replaced
+    private static List<String> utf8(List<String> members) {
+        return members.stream()
+                .map(member -> new String(member.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+    }
+
+    private static byte[] json(List<String> members) {
+        List<RedisZSetCommands.Tuple> page = members.stream()
+                .map(member -> (RedisZSetCommands.Tuple) new DefaultTuple(member.getBytes(StandardCharsets.UTF_8), 1.0))
+                .collect(Collectors.toList());
+        DataBuffer buffer = FavoritePages.json(new DefaultDataBufferFactory(), page);
+        byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        return bytes;
+    }
+
+}
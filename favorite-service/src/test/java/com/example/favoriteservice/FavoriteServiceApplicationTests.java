@@ -98,5 +98,80 @@ public class FavoriteServiceApplicationTests {
                 .expectBody().jsonPath("$.favorited").isEqualTo(false);
     }
 
+    @Test
+    @WithMockUser
+    public void favoritesAreListedNewestFirstPageByPage() throws InterruptedException {
+        client
+                .post()
+                .uri("/posts/olderslug/favorites")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.OK);
+        Thread.sleep(5L);
+        client
+                .post()
+                .uri("/posts/newerslug/favorites")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.OK);
+
+        FluxExchangeResult<String> first = client
+                .get()
+                .uri("/users/user/favorites?size=1")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.OK)
+                .returnResult(String.class);
+        String next = first.getResponseHeaders().getFirst("Link");
+        assertNotNull(next);
+        assertTrue(first.getResponseBody().blockFirst().contains("newerslug"));
+
+        client
+                .get()
+                .uri(next.substring(next.indexOf('<') + 1, next.indexOf('>')))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.OK)
+                .expectBody().jsonPath("$[0]").isEqualTo("olderslug");
+
+        client
+                .get()
+                .uri("/users/user/favorites?cursor=invalid")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.BAD_REQUEST);
+
+        client.delete().uri("/posts/olderslug/favorites").exchange().expectStatus().isEqualTo(HttpStatus.NO_CONTENT);
+        client.delete().uri("/posts/newerslug/favorites").exchange().expectStatus().isEqualTo(HttpStatus.NO_CONTENT);
+    }
+
+    @Test
+    @WithMockUser
+    public void favoriteStatusesOfManyPosts() {
+        client
+                .post()
+                .uri("/posts/statusslug1/favorites")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.OK);
+
+        client
+                .get()
+                .uri("/favorites/statuses?slug=statusslug1&slug=statusslug2")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.OK)
+                .expectBody()
+                .jsonPath("$.statusslug1.count").isEqualTo(1)
+                .jsonPath("$.statusslug1.favorited").isEqualTo(true)
+                .jsonPath("$.statusslug2.count").isEqualTo(0)
+                .jsonPath("$.statusslug2.favorited").isEqualTo(false);
+
+        client
+                .get()
+                .uri("/favorites/statuses")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.BAD_REQUEST);
+
+        client
+                .delete()
+                .uri("/posts/statusslug1/favorites")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.NO_CONTENT);
+    }
+
 
 }
@@ -0,0 +1,105 @@
+package com.example.favoriteservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.web.reactive.function.server.ServerRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The favorite counts and statuses of a page of {@code posts} posts against a
+ * {@link RedisStandIn}, by {@code GET /favorites/statuses} ({@code bulk}) and by the per post
+ * endpoints, {@code GET /posts/{slug}/favorited} and {@code GET /posts/{slug}/favorites} for every
+ * post ({@code single}). Run the main method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FavoriteStatusesBenchmark {
+
+    static final int FAVORITES = 100;
+
+    @Param({"20", "50"})
+    int posts;
+
+    @Param({"bulk", "single"})
+    String lookup;
+
+    RedisStandIn redis;
+    LettuceConnectionFactory factory;
+    FavoriteHandler handler;
+    ServerRequest bulk;
+    List<ServerRequest> single = new ArrayList<>();
+
+    @Setup
+    public void setup() throws Exception {
+        this.redis = RedisStandIn.start();
+        MockServerRequest.Builder bulk = Responses.request("user0");
+        for (int i = 0; i < this.posts; i++) {
+            String slug = "post-" + i;
+            // favorited by user0 every other post
+            for (int u = i % 2; u < FAVORITES; u++) {
+                this.redis.execute("ZADD", "posts:" + slug + ":favorites", "1", "user" + u);
+            }
+            bulk.queryParam("slug", slug);
+            this.single.add(Responses.request("user0").pathVariable("slug", slug).build());
+        }
+        this.bulk = bulk.build();
+
+        this.factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", this.redis.port()));
+        this.factory.afterPropertiesSet();
+        this.handler = new FavoriteHandler(this.factory, new FavoritePages(this.factory, 20, 100), new ObjectMapper(), 100);
+
+        String body = Responses.render(this.handler.statuses(this.bulk));
+        if (!body.contains("\"post-0\":{\"count\":" + FAVORITES + ",\"favorited\":true}")
+                && !body.contains("\"post-0\":{\"favorited\":true,\"count\":" + FAVORITES + "}")) {
+            throw new IllegalStateException("unexpected response " + body);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.factory.destroy();
+        this.redis.close();
+    }
+
+    @Benchmark
+    public int statuses() {
+        if ("bulk".equals(this.lookup)) {
+            return Responses.render(this.handler.statuses(this.bulk)).length();
+        }
+        int length = 0;
+        for (ServerRequest request : this.single) {
+            length += Responses.render(this.handler.favorited(request)).length();
+            length += Responses.render(this.handler.all(request)).length();
+        }
+        return length;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FavoriteStatusesBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
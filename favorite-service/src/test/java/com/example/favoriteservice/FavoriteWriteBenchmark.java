@@ -0,0 +1,152 @@
+package com.example.favoriteservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.web.reactive.function.server.ServerResponse.noContent;
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+/**
+ * A favorite and an unfavorite of a post against a {@link RedisStandIn}, by the handler
+ * ({@code script}, one round trip each) and by the former sequential commands ({@code commands},
+ * three round trips each). Run the main method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FavoriteWriteBenchmark {
+
+    static final String SLUG = "some-post";
+
+    @Param({"script", "commands"})
+    String writes;
+
+    RedisStandIn redis;
+    LettuceConnectionFactory factory;
+    ReactiveRedisConnection conn;
+    FavoriteHandler handler;
+    ObjectMapper objectMapper = new ObjectMapper();
+    ServerRequest request;
+
+    @Setup
+    public void setup() throws Exception {
+        this.redis = RedisStandIn.start();
+        this.redis.script(FavoriteHandler.FAVORITE_SCRIPT.getScriptAsString(), (keys, args) -> {
+            Object added = this.redis.call("ZADD", keys.get(0), "NX", args.get(0), args.get(1));
+            this.redis.call("ZADD", keys.get(1), "NX", args.get(0), args.get(2));
+            if (Long.valueOf(1L).equals(added)) {
+                this.redis.call("LPUSH", keys.get(2), args.get(3));
+            }
+            return added;
+        });
+        this.redis.script(FavoriteHandler.UNFAVORITE_SCRIPT.getScriptAsString(), (keys, args) -> {
+            Object removed = this.redis.call("ZREM", keys.get(0), args.get(1));
+            this.redis.call("ZREM", keys.get(1), args.get(2));
+            if (Long.valueOf(1L).equals(removed)) {
+                this.redis.call("LPUSH", keys.get(2), args.get(3));
+            }
+            return removed;
+        });
+
+        this.factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", this.redis.port()));
+        this.factory.afterPropertiesSet();
+        this.conn = this.factory.getReactiveConnection();
+        this.handler = new FavoriteHandler(this.factory, new FavoritePages(this.factory, 20, 100), this.objectMapper, 100);
+        this.request = Responses.request("user").pathVariable("slug", SLUG).build();
+
+        if (!this.handler.change(FavoriteHandler.FAVORITE_SCRIPT, SLUG, "user", 1L).block()
+                || this.handler.change(FavoriteHandler.FAVORITE_SCRIPT, SLUG, "user", 1L).block()
+                || !this.handler.change(FavoriteHandler.UNFAVORITE_SCRIPT, SLUG, "user", -1L).block()) {
+            throw new IllegalStateException("unexpected script results");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.conn.close();
+        this.factory.destroy();
+        this.redis.close();
+    }
+
+    @Benchmark
+    public void favoriteAndUnfavorite() {
+        if ("script".equals(this.writes)) {
+            Responses.render(this.handler.favorite(this.request));
+            Responses.render(this.handler.unfavorite(this.request));
+        } else {
+            Responses.render(this.favorite(this.request));
+            Responses.render(this.unfavorite(this.request));
+        }
+    }
+
+    // the writes replaced by the scripts
+    private Mono<ServerResponse> favorite(ServerRequest req) {
+        String slug = req.pathVariable("slug");
+        return req.principal()
+                .map(p -> p.getName())
+                .flatMap(
+                        name -> this.conn.zSetCommands()
+                                .zAdd(ByteBuffer.wrap(("posts:" + slug + ":favorites").getBytes()), 1.0D, ByteBuffer.wrap(name.getBytes()))
+                                .flatMap(added -> this.conn.zSetCommands().zAdd(ByteBuffer.wrap(("users:" + name + ":favorites").getBytes()), 1.0D, ByteBuffer.wrap(slug.getBytes()))
+                                        .then(added > 0 ? this.favoriteEvent(slug, 1L) : Mono.empty()))
+                )
+                .then(Mono.just(slug))
+                .flatMap(f -> ok().build());
+    }
+
+    private Mono<ServerResponse> unfavorite(ServerRequest req) {
+        String slug = req.pathVariable("slug");
+        return req.principal()
+                .map(p -> p.getName())
+                .flatMap(
+                        name -> this.conn.zSetCommands()
+                                .zRem(ByteBuffer.wrap(("posts:" + slug + ":favorites").getBytes()), ByteBuffer.wrap(name.getBytes()))
+                                .flatMap(removed -> this.conn.zSetCommands().zRem(ByteBuffer.wrap(("users:" + name + ":favorites").getBytes()), ByteBuffer.wrap(slug.getBytes()))
+                                        .then(removed > 0 ? this.favoriteEvent(slug, -1L) : Mono.empty()))
+                )
+                .then(Mono.just(slug))
+                .flatMap(f -> noContent().build());
+    }
+
+    private Mono<Long> favoriteEvent(String slug, long delta) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("slug", slug);
+        event.put("delta", delta);
+        return Mono.fromCallable(() -> ByteBuffer.wrap(this.objectMapper.writeValueAsBytes(event)))
+                .flatMap(message -> this.conn.listCommands().lPush(ByteBuffer.wrap(FavoriteHandler.FAVORITE_EVENTS.getBytes()), Collections.singletonList(message)));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FavoriteWriteBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
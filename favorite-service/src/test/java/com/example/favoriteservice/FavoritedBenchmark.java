@@ -0,0 +1,116 @@
+package com.example.favoriteservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+/**
+ * Latency of {@code GET /posts/{slug}/favorited} against a {@link RedisStandIn} holding
+ * {@code favorites} favorites of the post, by the handler ({@code score}) and by the former full
+ * range read ({@code range}). Run the main method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class FavoritedBenchmark {
+
+    static final String SLUG = "viral-post";
+
+    @Param({"1000", "100000", "1000000"})
+    int favorites;
+
+    @Param({"score", "range"})
+    String lookup;
+
+    RedisStandIn redis;
+    LettuceConnectionFactory factory;
+    ReactiveRedisConnection conn;
+    FavoriteHandler handler;
+    ServerRequest request;
+
+    @Setup
+    public void setup() throws Exception {
+        this.redis = RedisStandIn.start();
+        for (int i = 0; i < this.favorites; i++) {
+            this.redis.execute("ZADD", "posts:" + SLUG + ":favorites", "1", "user" + i);
+        }
+
+        this.factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", this.redis.port()));
+        this.factory.afterPropertiesSet();
+        this.conn = this.factory.getReactiveConnection();
+        this.handler = new FavoriteHandler(this.factory, new FavoritePages(this.factory, 20, 100), new ObjectMapper(), 100);
+
+        this.request = Responses.request("user" + this.favorites / 2).pathVariable("slug", SLUG).build();
+
+        String body = this.favorited();
+        if (!body.contains("true")) {
+            throw new IllegalStateException("unexpected response " + body);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.conn.close();
+        this.factory.destroy();
+        this.redis.close();
+    }
+
+    @Benchmark
+    public String favorited() {
+        return Responses.render("score".equals(this.lookup) ? this.handler.favorited(this.request) : this.range(this.request));
+    }
+
+    // the lookup replaced by ZSCORE
+    private Mono<ServerResponse> range(ServerRequest req) {
+        String slug = req.pathVariable("slug");
+        return req.principal()
+                .map(p -> p.getName())
+                .flatMap(
+                        name -> this.conn.zSetCommands()
+                                .zRange(
+                                        ByteBuffer.wrap(("posts:" + slug + ":favorites").getBytes()),
+                                        Range.of(Range.Bound.inclusive(0L), Range.Bound.inclusive(-1L))
+                                )
+                                .map(b -> StandardCharsets.UTF_8.decode(b).toString())
+                                .collectList()
+                                .map(f -> Collections.singletonMap("favorited", f.contains(name)))
+                )
+                .flatMap(f -> ok().body(BodyInserters.fromObject(f)));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FavoritedBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.example.favoriteservice;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+/**
+ * Allocations of {@code GET /posts/{slug}/favorites} against a {@link RedisStandIn}, a page of 20
+ * of {@code FAVORITES} favorites, by the handler ({@code streaming}, keys encoded in place and
+ * members written from their bytes into the response buffer) and by the former encoding
+ * ({@code collected}, keys and members copied through {@code String}s and the members collected in
+ * a list written by Jackson). Run the main method, which adds the {@code gc} profiler, and compare
+ * {@code gc.alloc.rate.norm}. It counts the allocations of the stand-in and of the mock exchange
+ * too, which are the same for both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FavoritesPageBenchmark {
+
+    static final String SLUG = "some-post";
+    static final int FAVORITES = 100;
+
+    @Param({"streaming", "collected"})
+    String encoding;
+
+    RedisStandIn redis;
+    LettuceConnectionFactory factory;
+    ReactiveRedisConnection conn;
+    FavoriteHandler handler;
+    ObjectMapper objectMapper = new ObjectMapper();
+    ServerRequest request;
+
+    @Setup
+    public void setup() throws Exception {
+        this.redis = RedisStandIn.start();
+        List<String> users = new ArrayList<>();
+        for (int i = 0; i < FAVORITES; i++) {
+            // some names to escape and to encode in more than one byte
+            String user = i % 10 == 0 ? "us\"er\\" + i + "\u0001" : i % 10 == 1 ? "us\u00e9r-" + i + "-\uD83D\uDE00" : "user" + i;
+            users.add(0, user);
+            this.redis.execute("ZADD", "posts:" + SLUG + ":favorites", Long.toString(1_500_000_000_000L + i), user);
+        }
+
+        this.factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", this.redis.port()));
+        this.factory.afterPropertiesSet();
+        this.conn = this.factory.getReactiveConnection();
+        this.handler = new FavoriteHandler(this.factory, new FavoritePages(this.factory, 20, 100), this.objectMapper, 100);
+        this.request = Responses.request("user0").pathVariable("slug", SLUG).build();
+
+        List<String> expected = users.subList(0, 20);
+        for (String body : new String[]{Responses.render(this.handler.all(this.request)), Responses.render(this.all(this.request))}) {
+            if (!expected.equals(this.objectMapper.readValue(body, new TypeReference<List<String>>() {
+            }))) {
+                throw new IllegalStateException("unexpected response " + body);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.conn.close();
+        this.factory.destroy();
+        this.redis.close();
+    }
+
+    @Benchmark
+    public String page() {
+        if ("streaming".equals(this.encoding)) {
+            return Responses.render(this.handler.all(this.request));
+        }
+        return Responses.render(this.all(this.request));
+    }
+
+    // the encoding replaced by FavoriteKeys and FavoritePages.json
+    private Mono<ServerResponse> all(ServerRequest req) {
+        String slug = req.pathVariable("slug");
+        return this.conn.zSetCommands()
+                .zRevRangeByScoreWithScores(
+                        ByteBuffer.wrap(("posts:" + slug + ":favorites").getBytes()),
+                        FavoritePages.Cursor.FIRST.range(),
+                        RedisZSetCommands.Limit.limit().offset(0).count(21)
+                )
+                .collectList()
+                .flatMap(found -> {
+                    List<RedisZSetCommands.Tuple> page = found.size() > 20 ? found.subList(0, 20) : found;
+                    ServerResponse.BodyBuilder response = ok();
+                    if (found.size() > 20) {
+                        String next = UriComponentsBuilder.fromUri(req.uri())
+                                .replaceQueryParam("cursor", FavoritePages.Cursor.FIRST.next(page).encode())
+                                .build(true)
+                                .toUriString();
+                        response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+                    }
+                    return response.body(BodyInserters.fromObject(page.stream()
+                            .map(t -> new String(t.getValue(), StandardCharsets.UTF_8))
+                            .collect(Collectors.toList())));
+                });
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FavoritesPageBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+}
@@ -0,0 +1,511 @@
+package com.example.favoriteservice;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * An in-memory Redis speaking the protocol on a local port, for the benchmarks and tests
+ * with the real client, connection and network round trips. Only the commands used by this service
+ * are supported, keys and values are kept as ISO-8859-1 strings, one char per byte.
+ * <p>
+ * There is no Lua, the scripts of the service are registered with {@link #script} along with Java
+ * code doing the same commands through {@link #call}.
+ */
+class RedisStandIn implements Closeable {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final Map<String, Object> data = new HashMap<>();
+    private final Map<String, Script> scripts = new HashMap<>();
+    private final EventLoopGroup group = new NioEventLoopGroup(1);
+    private final Channel channel;
+
+    private RedisStandIn() throws InterruptedException {
+        this.channel = new ServerBootstrap()
+                .group(this.group)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new CommandDecoder(), new CommandHandler());
+                    }
+                })
+                .bind("127.0.0.1", 0)
+                .sync()
+                .channel();
+    }
+
+    static RedisStandIn start() throws InterruptedException {
+        return new RedisStandIn();
+    }
+
+    int port() {
+        return ((InetSocketAddress) this.channel.localAddress()).getPort();
+    }
+
+    /**
+     * Runs a command like a client, for loading the data of a benchmark without the round trips.
+     */
+    Object execute(String... command) {
+        List<String> args = new ArrayList<>();
+        for (String arg : command) {
+            args.add(new String(arg.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1));
+        }
+        synchronized (this.data) {
+            return this.dispatch(args);
+        }
+    }
+
+    /**
+     * Makes {@code EVAL} and {@code EVALSHA} of the source run the script.
+     */
+    void script(String source, Script script) {
+        synchronized (this.data) {
+            this.scripts.put(sha1(source), script);
+        }
+    }
+
+    /**
+     * Runs a command from a script, with the arguments as received.
+     */
+    Object call(String... command) {
+        return this.dispatch(Arrays.asList(command));
+    }
+
+    @Override
+    public void close() {
+        this.channel.close().syncUninterruptibly();
+        this.group.shutdownGracefully().syncUninterruptibly();
+    }
+
+    private Object dispatch(List<String> command) {
+        String name = command.get(0).toUpperCase();
+        switch (name) {
+            case "PING":
+                return new Status("PONG");
+            case "SELECT":
+            case "CLIENT":
+                return new Status("OK");
+            case "DEL": {
+                long deleted = 0;
+                for (String key : command.subList(1, command.size())) {
+                    deleted += this.data.remove(key) == null ? 0 : 1;
+                }
+                return deleted;
+            }
+            case "LPUSH": {
+                Deque<String> list = this.list(command.get(1), true);
+                for (String value : command.subList(2, command.size())) {
+                    list.addFirst(value);
+                }
+                return (long) list.size();
+            }
+            case "LLEN": {
+                Deque<String> list = this.list(command.get(1), false);
+                return list == null ? 0L : (long) list.size();
+            }
+            // never blocks, an empty list is a timeout right away
+            case "RPOPLPUSH":
+            case "BRPOPLPUSH": {
+                Deque<String> source = this.list(command.get(1), false);
+                if (source == null) {
+                    return null;
+                }
+                String value = source.removeLast();
+                if (source.isEmpty()) {
+                    this.data.remove(command.get(1));
+                }
+                this.list(command.get(2), true).addFirst(value);
+                return value;
+            }
+            case "LREM": {
+                Deque<String> list = this.list(command.get(1), false);
+                long count = Long.parseLong(command.get(2));
+                long removed = 0;
+                if (list != null) {
+                    Iterator<String> values = count < 0 ? list.descendingIterator() : list.iterator();
+                    while (values.hasNext() && (count == 0 || removed < Math.abs(count))) {
+                        if (values.next().equals(command.get(3))) {
+                            values.remove();
+                            removed++;
+                        }
+                    }
+                    if (list.isEmpty()) {
+                        this.data.remove(command.get(1));
+                    }
+                }
+                return removed;
+            }
+            case "ZADD": {
+                SortedSet set = this.sortedSet(command.get(1), true);
+                int i = 2;
+                boolean nx = false;
+                boolean xx = false;
+                for (; "NX".equalsIgnoreCase(command.get(i)) || "XX".equalsIgnoreCase(command.get(i)); i++) {
+                    nx |= "NX".equalsIgnoreCase(command.get(i));
+                    xx |= "XX".equalsIgnoreCase(command.get(i));
+                }
+                long added = 0;
+                for (; i < command.size(); i += 2) {
+                    boolean exists = set.scores.containsKey(command.get(i + 1));
+                    if ((nx && exists) || (xx && !exists)) {
+                        continue;
+                    }
+                    added += set.add(Double.parseDouble(command.get(i)), command.get(i + 1)) ? 1 : 0;
+                }
+                if (set.scores.isEmpty()) {
+                    this.data.remove(command.get(1));
+                }
+                return added;
+            }
+            case "ZCOUNT": {
+                SortedSet set = this.sortedSet(command.get(1), false);
+                return set == null ? 0L : set.members.stream()
+                        .filter(m -> above(m.score, command.get(2)) && below(m.score, command.get(3)))
+                        .count();
+            }
+            case "ZRANGEBYSCORE":
+            case "ZREVRANGEBYSCORE": {
+                SortedSet set = this.sortedSet(command.get(1), false);
+                boolean reverse = "ZREVRANGEBYSCORE".equals(name);
+                // max first when reversed
+                String min = command.get(reverse ? 3 : 2);
+                String max = command.get(reverse ? 2 : 3);
+                boolean withScores = false;
+                long offset = 0;
+                long count = -1;
+                for (int i = 4; i < command.size(); i++) {
+                    if ("WITHSCORES".equalsIgnoreCase(command.get(i))) {
+                        withScores = true;
+                    } else if ("LIMIT".equalsIgnoreCase(command.get(i))) {
+                        offset = Long.parseLong(command.get(++i));
+                        count = Long.parseLong(command.get(++i));
+                    }
+                }
+                List<Object> reply = new ArrayList<>();
+                if (set == null) {
+                    return reply;
+                }
+                for (Member member : reverse ? set.members.descendingSet() : set.members) {
+                    if (count >= 0 && reply.size() >= (withScores ? 2 * count : count)) {
+                        break;
+                    }
+                    if (above(member.score, min) && below(member.score, max) && offset-- <= 0) {
+                        reply.add(member.value);
+                        if (withScores) {
+                            reply.add(format(member.score));
+                        }
+                    }
+                }
+                return reply;
+            }
+            case "ZREM": {
+                SortedSet set = this.sortedSet(command.get(1), false);
+                long removed = 0;
+                for (String member : command.subList(2, command.size())) {
+                    removed += set != null && set.remove(member) ? 1 : 0;
+                }
+                if (set != null && set.scores.isEmpty()) {
+                    this.data.remove(command.get(1));
+                }
+                return removed;
+            }
+            case "ZSCORE": {
+                SortedSet set = this.sortedSet(command.get(1), false);
+                Double score = set == null ? null : set.scores.get(command.get(2));
+                return score == null ? null : format(score);
+            }
+            case "ZCARD": {
+                SortedSet set = this.sortedSet(command.get(1), false);
+                return set == null ? 0L : (long) set.scores.size();
+            }
+            case "ZRANGE": {
+                SortedSet set = this.sortedSet(command.get(1), false);
+                boolean withScores = command.size() > 4 && "WITHSCORES".equalsIgnoreCase(command.get(4));
+                List<Object> reply = new ArrayList<>();
+                if (set == null) {
+                    return reply;
+                }
+                int size = set.scores.size();
+                long start = index(Long.parseLong(command.get(2)), size);
+                long stop = Math.min(index(Long.parseLong(command.get(3)), size), size - 1);
+                int i = 0;
+                for (Member member : set.members) {
+                    if (i > stop) {
+                        break;
+                    }
+                    if (i++ >= start) {
+                        reply.add(member.value);
+                        if (withScores) {
+                            reply.add(format(member.score));
+                        }
+                    }
+                }
+                return reply;
+            }
+            case "EVAL":
+            case "EVALSHA": {
+                String sha = "EVAL".equals(name) ? sha1(command.get(1)) : command.get(1);
+                Script script = this.scripts.get(sha);
+                if (script == null) {
+                    return new Error("NOSCRIPT No matching script. Please use EVAL.");
+                }
+                int keys = Integer.parseInt(command.get(2));
+                return script.run(command.subList(3, 3 + keys), command.subList(3 + keys, command.size()));
+            }
+            default:
+                return new Error("ERR unknown command '" + name + "'");
+        }
+    }
+
+    private SortedSet sortedSet(String key, boolean create) {
+        Object value = this.data.get(key);
+        if (value == null && create) {
+            value = new SortedSet();
+            this.data.put(key, value);
+        }
+        if (value != null && !(value instanceof SortedSet)) {
+            throw new IllegalStateException("WRONGTYPE " + key);
+        }
+        return (SortedSet) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Deque<String> list(String key, boolean create) {
+        Object value = this.data.get(key);
+        if (value == null && create) {
+            value = new ArrayDeque<String>();
+            this.data.put(key, value);
+        }
+        if (value != null && !(value instanceof Deque)) {
+            throw new IllegalStateException("WRONGTYPE " + key);
+        }
+        return (Deque<String>) value;
+    }
+
+    private static String sha1(String source) {
+        try {
+            StringBuilder sha = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8))) {
+                sha.append(String.format("%02x", b));
+            }
+            return sha.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // min and max arguments of the by score commands: -inf, +inf, (exclusive or inclusive
+    private static boolean above(double score, String min) {
+        if (min.startsWith("(")) {
+            return score > bound(min.substring(1));
+        }
+        return score >= bound(min);
+    }
+
+    private static boolean below(double score, String max) {
+        if (max.startsWith("(")) {
+            return score < bound(max.substring(1));
+        }
+        return score <= bound(max);
+    }
+
+    private static double bound(String value) {
+        switch (value.toLowerCase()) {
+            case "-inf":
+                return Double.NEGATIVE_INFINITY;
+            case "+inf":
+            case "inf":
+                return Double.POSITIVE_INFINITY;
+            default:
+                return Double.parseDouble(value);
+        }
+    }
+
+    private static long index(long index, int size) {
+        return index < 0 ? Math.max(0, size + index) : index;
+    }
+
+    private static String format(double score) {
+        return score == Math.rint(score) && !Double.isInfinite(score) ? Long.toString((long) score) : Double.toString(score);
+    }
+
+    private static void write(ByteBuf out, Object reply) {
+        if (reply == null) {
+            out.writeBytes("$-1".getBytes(StandardCharsets.ISO_8859_1)).writeBytes(CRLF);
+        } else if (reply instanceof Status) {
+            out.writeByte('+').writeBytes(((Status) reply).value.getBytes(StandardCharsets.ISO_8859_1)).writeBytes(CRLF);
+        } else if (reply instanceof Error) {
+            out.writeByte('-').writeBytes(((Error) reply).message.getBytes(StandardCharsets.ISO_8859_1)).writeBytes(CRLF);
+        } else if (reply instanceof Long) {
+            out.writeByte(':').writeBytes(reply.toString().getBytes(StandardCharsets.ISO_8859_1)).writeBytes(CRLF);
+        } else if (reply instanceof String) {
+            byte[] bytes = ((String) reply).getBytes(StandardCharsets.ISO_8859_1);
+            out.writeByte('$').writeBytes(Integer.toString(bytes.length).getBytes(StandardCharsets.ISO_8859_1)).writeBytes(CRLF)
+                    .writeBytes(bytes).writeBytes(CRLF);
+        } else if (reply instanceof List) {
+            List<?> items = (List<?>) reply;
+            out.writeByte('*').writeBytes(Integer.toString(items.size()).getBytes(StandardCharsets.ISO_8859_1)).writeBytes(CRLF);
+            for (Object item : items) {
+                write(out, item);
+            }
+        } else {
+            throw new IllegalArgumentException("unsupported reply " + reply);
+        }
+    }
+
+    interface Script {
+
+        Object run(List<String> keys, List<String> args);
+    }
+
+    private static final class Status {
+
+        final String value;
+
+        Status(String value) {
+            this.value = value;
+        }
+    }
+
+    private static final class Error {
+
+        final String message;
+
+        Error(String message) {
+            this.message = message;
+        }
+    }
+
+    private static final class Member {
+
+        final double score;
+        final String value;
+
+        Member(double score, String value) {
+            this.score = score;
+            this.value = value;
+        }
+    }
+
+    private static final class SortedSet {
+
+        final Map<String, Double> scores = new HashMap<>();
+        final TreeSet<Member> members = new TreeSet<>(Comparator.<Member>comparingDouble(m -> m.score).thenComparing(m -> m.value));
+
+        boolean add(double score, String value) {
+            Double previous = this.scores.put(value, score);
+            if (previous != null) {
+                this.members.remove(new Member(previous, value));
+            }
+            this.members.add(new Member(score, value));
+            return previous == null;
+        }
+
+        boolean remove(String value) {
+            Double previous = this.scores.remove(value);
+            if (previous == null) {
+                return false;
+            }
+            this.members.remove(new Member(previous, value));
+            return true;
+        }
+    }
+
+    // arrays of bulk strings, the only form of commands sent by the clients
+    private static final class CommandDecoder extends ByteToMessageDecoder {
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            in.markReaderIndex();
+            List<String> command = readCommand(in);
+            if (command == null) {
+                in.resetReaderIndex();
+            } else {
+                out.add(command);
+            }
+        }
+
+        private static List<String> readCommand(ByteBuf in) {
+            String count = readLine(in, '*');
+            if (count == null) {
+                return null;
+            }
+            int size = Integer.parseInt(count);
+            List<String> command = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                String length = readLine(in, '$');
+                if (length == null || in.readableBytes() < Integer.parseInt(length) + 2) {
+                    return null;
+                }
+                command.add(in.readCharSequence(Integer.parseInt(length), StandardCharsets.ISO_8859_1).toString());
+                in.skipBytes(2);
+            }
+            return command;
+        }
+
+        private static String readLine(ByteBuf in, char type) {
+            int end = in.indexOf(in.readerIndex(), in.writerIndex(), (byte) '\r');
+            if (end < 0 || end + 1 >= in.writerIndex()) {
+                return null;
+            }
+            if (in.readByte() != type) {
+                throw new IllegalStateException("unsupported command format");
+            }
+            String line = in.readCharSequence(end - in.readerIndex(), StandardCharsets.ISO_8859_1).toString();
+            in.skipBytes(2);
+            return line;
+        }
+    }
+
+    private final class CommandHandler extends SimpleChannelInboundHandler<List<String>> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, List<String> command) {
+            Object reply;
+            try {
+                synchronized (RedisStandIn.this.data) {
+                    reply = RedisStandIn.this.dispatch(command);
+                }
+            } catch (RuntimeException e) {
+                reply = new Error(e.getMessage().startsWith("WRONGTYPE") ? e.getMessage() : "ERR " + e.getMessage());
+            }
+            ByteBuf out = ctx.alloc().buffer();
+            write(out, reply);
+            ctx.write(out);
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.example.favoriteservice;
+
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.reactive.result.view.ViewResolver;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Calls of the handlers without the server, for the benchmarks.
+ */
+final class Responses {
+
+    private static final HandlerStrategies STRATEGIES = HandlerStrategies.withDefaults();
+    private static final ServerResponse.Context CONTEXT = new ServerResponse.Context() {
+        @Override
+        public List<HttpMessageWriter<?>> messageWriters() {
+            return STRATEGIES.messageWriters();
+        }
+
+        @Override
+        public List<ViewResolver> viewResolvers() {
+            return STRATEGIES.viewResolvers();
+        }
+    };
+
+    private Responses() {
+    }
+
+    static MockServerRequest.Builder request(String user) {
+        // session(Principal) sets the principal in this version
+        return MockServerRequest.builder().session(() -> user);
+    }
+
+    /**
+     * Writes the response like the server and returns the body.
+     */
+    static String render(Mono<ServerResponse> response) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/"));
+        return response
+                .flatMap(r -> r.writeTo(exchange, CONTEXT))
+                .then(Mono.defer(() -> exchange.getResponse().getBodyAsString()))
+                .block();
+    }
+
+}
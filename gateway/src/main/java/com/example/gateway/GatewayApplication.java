@@ -23,6 +23,7 @@ import org.springframework.cloud.gateway.route.builder.RouteLocatorBuilder;
 import org.springframework.cloud.netflix.hystrix.HystrixCommands;
 import org.springframework.context.annotation.Bean;
 import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
@@ -34,18 +35,23 @@ import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import org.springframework.web.server.session.HeaderWebSessionIdResolver;
 import org.springframework.web.server.session.WebSessionIdResolver;
+import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.net.URI;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 import static org.springframework.cloud.netflix.hystrix.HystrixCommands.from;
 import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+import static org.springframework.web.reactive.function.server.ServerResponse.status;
 
 @SpringBootApplication
 @EnableDiscoveryClient
@@ -120,55 +126,94 @@ public class GatewayApplication {
             }
         ).andRoute(
             GET("/posts/{slug}/favorites"),
-            (req) -> {
-                Flux<String> favorites = webClient
-                    .get()
-                    .uri(favoriteServiceUrl + "/posts/{slug}/favorites", req.pathVariable("slug"))
-                    .retrieve()
-                    .bodyToFlux(String.class);
-
-                Publisher<String> cb = from(favorites)
-                    .commandName("posts-favorites")
-                    .fallback(Flux.just("loading favorited users failed!"))
-                    .eager()
-                    .build();
-
-                return ok().body(cb, String.class);
-            }
+            (req) -> webClient
+                .get()
+                .uri(favoritesPage(favoriteServiceUrl + "/posts/{slug}/favorites", req, req.pathVariable("slug")))
+                .exchange()
+                .flatMap(res -> {
+                    if (res.statusCode().is4xxClientError()) {
+                        return status(res.statusCode()).body(res.bodyToMono(String.class), String.class);
+                    }
+                    Publisher<String> cb = from(body(res, String.class))
+                        .commandName("posts-favorites")
+                        .fallback(Flux.just("loading favorited users failed!"))
+                        .eager()
+                        .build();
+
+                    return ok().headers(h -> nextPage(req, res).ifPresent(link -> h.set(HttpHeaders.LINK, link))).body(cb, String.class);
+                })
+                .onErrorResume(e -> ok().body(Flux.just("loading favorited users failed!"), String.class))
         ).andRoute(
             GET("/user/favorites"),
-            (req) -> {
-                Flux<FavoritedPost> favorites = req.principal()
-                    .flatMapMany(
-                        p -> webClient
-                           //.mutate().filter(new CopyRequestAuthTokenHeaderExchangeFilterFunction(req)).build()
-                            .get()
-                            .uri(favoriteServiceUrl + "/users/{username}/favorites", p.getName())
-                            .retrieve()
-                            .bodyToFlux(String.class)
-                            .flatMap(
-                                slug -> webClient
-                                    .get()
-                                    .uri(postServiceUrl + "/posts/{slug}/", slug)
-                                    .retrieve()
-                                    .bodyToMono(Post.class)
-                                    .map(post -> new FavoritedPost(post.getTitle(), slug, post.getCreatedDate()))
-                            )
-                    );
-
-
-                Publisher<FavoritedPost> cb = HystrixCommands
-                    .from(favorites)
-                    .commandName("posts-favorites")
-                    .fallback(Flux.just(new FavoritedPost("Loading favorited posts failed", "not_loaded", LocalDateTime.now())))
-                    .eager()
-                    .build();
-
-                return ok().body(cb, FavoritedPost.class);
-            }
+            (req) -> req.principal()
+                .flatMap(
+                    p -> webClient
+                        //.mutate().filter(new CopyRequestAuthTokenHeaderExchangeFilterFunction(req)).build()
+                        .get()
+                        .uri(favoritesPage(favoriteServiceUrl + "/users/{username}/favorites", req, p.getName()))
+                        .exchange()
+                )
+                .flatMap(res -> {
+                    if (res.statusCode().is4xxClientError()) {
+                        return status(res.statusCode()).body(res.bodyToMono(String.class), String.class);
+                    }
+                    // in the order of the page, newest first
+                    Flux<FavoritedPost> favorites = body(res, String[].class)
+                        .flatMapIterable(Arrays::asList)
+                        .flatMapSequential(
+                            slug -> webClient
+                                .get()
+                                .uri(postServiceUrl + "/posts/{slug}?view=summary", slug)
+                                .retrieve()
+                                .bodyToMono(Post.class)
+                                .map(post -> new FavoritedPost(post.getTitle(), slug, post.getCreatedDate()))
+                                // deleted since, until favorite-service has cleaned up its favorites
+                                .onErrorResume(GatewayApplication::isNotFound, e -> Mono.empty())
+                        );
+
+                    Publisher<FavoritedPost> cb = HystrixCommands
+                        .from(favorites)
+                        .commandName("posts-favorites")
+                        .fallback(Flux.just(new FavoritedPost("Loading favorited posts failed", "not_loaded", LocalDateTime.now())))
+                        .eager()
+                        .build();
+
+                    return ok().headers(h -> nextPage(req, res).ifPresent(link -> h.set(HttpHeaders.LINK, link))).body(cb, FavoritedPost.class);
+                })
+                .onErrorResume(e -> ok().body(Flux.just(new FavoritedPost("Loading favorited posts failed", "not_loaded", LocalDateTime.now())), FavoritedPost.class))
         );
     }
 
+    private static boolean isNotFound(Throwable e) {
+        return e instanceof WebClientResponseException
+            && ((WebClientResponseException) e).getStatusCode() == HttpStatus.NOT_FOUND;
+    }
+
+    // a page of a favorites list of favorite-service, the cursor and size params are forwarded
+    private static URI favoritesPage(String url, ServerRequest req, Object... uriVariables) {
+        UriComponentsBuilder page = UriComponentsBuilder.newInstance()
+            .uriComponents(UriComponentsBuilder.fromHttpUrl(url).buildAndExpand(uriVariables));
+        req.queryParam("cursor").ifPresent(cursor -> page.queryParam("cursor", cursor));
+        req.queryParam("size").ifPresent(size -> page.queryParam("size", size));
+        return page.build().encode().toUri();
+    }
+
+    // the link to the next page of favorite-service, rewritten to the URL of the gateway
+    private static Optional<String> nextPage(ServerRequest req, ClientResponse res) {
+        return Optional.ofNullable(res.headers().asHttpHeaders().getFirst(HttpHeaders.LINK))
+            .filter(link -> link.indexOf('<') >= 0 && link.indexOf('>') > link.indexOf('<'))
+            .map(link -> UriComponentsBuilder.fromUriString(link.substring(link.indexOf('<') + 1, link.indexOf('>'))).build().getQueryParams().getFirst("cursor"))
+            .map(cursor -> "<" + UriComponentsBuilder.fromUri(req.uri()).replaceQueryParam("cursor", cursor).build(true).toUriString() + ">; rel=\"next\"");
+    }
+
+    // the body, or an error for the circuit breaker if favorite-service failed
+    private static <T> Mono<T> body(ClientResponse res, Class<T> type) {
+        if (res.statusCode().isError()) {
+            return res.bodyToMono(Void.class).then(Mono.error(new IllegalStateException("favorite-service answered " + res.statusCode())));
+        }
+        return res.bodyToMono(type);
+    }
+
     @Bean
     @Order(-1)
     RouteLocator gatewayRoutes(RequestRateLimiterGatewayFilterFactory rl,
@@ -179,6 +224,14 @@ public class GatewayApplication {
                 .uri(authServiceUrl)
             )
 
+            // the timeline of an author, served by post-service, ahead of the other users routes
+            .route("user-posts", predicate -> predicate
+                .method(HttpMethod.GET)
+                .and()
+                .path("/users/*/posts")
+                .uri(postServiceUrl)
+            )
+
             .route("users", predicate -> predicate.path("/users/**")
                 .uri(authServiceUrl)
             )
@@ -193,6 +246,14 @@ public class GatewayApplication {
                 .uri(favoriteServiceUrl)
             )
 
+            // favorite counts and statuses of a page of posts
+            .route("favorite-statuses", predicate -> predicate
+                .method(HttpMethod.GET)
+                .and()
+                .path("/favorites/statuses")
+                .uri(favoriteServiceUrl)
+            )
+
             .route("posts", predicate -> predicate.path("/posts/**")
                 .filters(
                     g -> g
@@ -0,0 +1,169 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.web.reactive.function.server.ServerResponse.badRequest;
+
+/**
+ * The posts of an author, newest first, as summaries without the content.
+ * <p>
+ * Pages are read with {@link CursorPagination} on the
+ * {@code (author.username, createdDate desc, _id desc)} index and cached in Redis, each page under
+ * its own key, {@code users:{username}:posts:{version}:{cursor}:{size}}, which expires after
+ * {@code timeline.cache.ttl}. Creating, editing or deleting a post of the author increments the
+ * version in {@code users:{username}:posts:version}, the pages of the former version are not read
+ * anymore and expire, a page stored while a post of the author was written included. The counters
+ * in the summaries change much more often and are not tracked, they are as old as
+ * {@code timeline.cache.ttl} at most.
+ *
+ * @author hantsy
+ */
+@Component
+@Slf4j
+class AuthorTimeline {
+
+    private final CursorPagination pagination;
+    private final String collection;
+    private final ReactiveRedisTemplate<String, String> redis;
+    private final ObjectMapper objectMapper;
+    private final Duration ttl;
+
+    public AuthorTimeline(CursorPagination pagination,
+            ReactiveMongoTemplate template,
+            ReactiveRedisConnectionFactory connectionFactory,
+            ObjectMapper objectMapper,
+            @Value("${timeline.cache.ttl:5m}") String ttl) {
+        this.pagination = pagination;
+        this.collection = template.getCollectionName(Post.class);
+        this.redis = new ReactiveRedisTemplate<>(connectionFactory, RedisSerializationContext.string());
+        this.objectMapper = objectMapper;
+        this.ttl = DurationStyle.detectAndParse(ttl);
+    }
+
+    /**
+     * Responds with the requested page of the posts of the {@code username} path variable, or 400
+     * if the {@code cursor} or {@code size} is invalid.
+     */
+    public Mono<ServerResponse> page(ServerRequest req) {
+        String username = req.pathVariable("username");
+        return Mono
+                .defer(() -> {
+                    String page = req.queryParam("cursor").orElse("") + ":" + this.pagination.size(req);
+                    return this.version(username)
+                            .flatMap((version) -> this.cached(username, key(username, version, page))
+                                    .switchIfEmpty(Mono.defer(() -> this.find(req, username)
+                                            .flatMap((found) -> this.store(username, key(username, version, page), found)))))
+                            // not cached without a version
+                            .switchIfEmpty(Mono.defer(() -> this.find(req, username)));
+                })
+                .flatMap((page) -> CursorPagination
+                        .ok(new CursorPagination.CursorPage<>(page.getItems(), page.getNext() == null ? null : URI.create(page.getNext())))
+                        .contentType(MediaType.APPLICATION_JSON_UTF8)
+                        .body(Flux.fromIterable(page.getItems()), PostSummary.class))
+                .onErrorResume(IllegalArgumentException.class, (e) -> badRequest().syncBody(e.getMessage()));
+    }
+
+    /**
+     * Drops the cached pages of the author, by moving to a new version of them.
+     */
+    public Mono<Void> evict(Username author) {
+        if (author == null || author.getUsername() == null) {
+            return Mono.empty();
+        }
+        ByteBuffer key = ByteBuffer.wrap(versionKey(author.getUsername()).getBytes(StandardCharsets.UTF_8));
+        return this.redis.execute((connection) -> connection.numberCommands().incr(key))
+                .onErrorResume((e) -> {
+                    log.warn("timeline cache eviction of {} failed: {}", author.getUsername(), e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private Mono<TimelinePage> find(ServerRequest req, String username) {
+        return this.pagination
+                .find(req, where("author.username").is(username), PostSummary.class, this.collection)
+                .map((found) -> new TimelinePage(found.getItems(), found.getNext() == null ? null : found.getNext().toString()));
+    }
+
+    // 0 until a post of the author is written, empty when Redis is not available
+    private Mono<String> version(String username) {
+        return this.redis.opsForValue().get(versionKey(username))
+                .defaultIfEmpty("0")
+                .onErrorResume((e) -> {
+                    log.warn("timeline cache version lookup of {} failed: {}", username, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<TimelinePage> cached(String username, String key) {
+        return this.redis.opsForValue().get(key)
+                .flatMap((json) -> {
+                    try {
+                        return Mono.just(this.objectMapper.readValue(json, TimelinePage.class));
+                    } catch (IOException e) {
+                        log.warn("dropped unreadable timeline page of {}: {}", username, e.getMessage());
+                        return Mono.empty();
+                    }
+                })
+                .onErrorResume((e) -> {
+                    log.warn("timeline cache lookup of {} failed: {}", username, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<TimelinePage> store(String username, String key, TimelinePage found) {
+        return Mono.fromCallable(() -> this.objectMapper.writeValueAsString(found))
+                .flatMap((json) -> this.redis.opsForValue().set(key, json, this.ttl))
+                .onErrorResume((e) -> {
+                    log.warn("timeline cache update of {} failed: {}", username, e.getMessage());
+                    return Mono.empty();
+                })
+                .then(Mono.just(found));
+    }
+
+    private static String versionKey(String username) {
+        return "users:" + username + ":posts:version";
+    }
+
+    private static String key(String username, String version, String page) {
+        return "users:" + username + ":posts:" + version + ":" + page;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class TimelinePage {
+
+        private List<PostSummary> items;
+        private String next;
+    }
+
+}
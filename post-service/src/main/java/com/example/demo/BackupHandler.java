@@ -0,0 +1,262 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.model.InsertManyOptions;
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.codecs.DocumentCodec;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonParseException;
+import org.bson.json.JsonWriterSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import static org.springframework.web.reactive.function.server.ServerResponse.badRequest;
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+/**
+ * Export and import of all posts and comments as gzip compressed NDJSON, for backups and
+ * environment refreshes.
+ * <p>
+ * Every line is {@code {"collection": ..., "document": ...}} with the stored document in relaxed
+ * extended JSON, the documents are not mapped to entities on the way. The export is streamed from
+ * the database cursors to the response, or to a file in {@code backup.directory} written with an
+ * {@link AsynchronousFileChannel}. The import reads the upload or a file of that directory buffer
+ * by buffer and writes unordered {@code insertMany} batches of {@code backup.batch-size} documents,
+ * documents whose id already exists are skipped. Neither holds more than a batch in memory.
+ * <p>
+ * Deflating is most of the cost of an export, {@code backup.compression-level} is the fastest level
+ * by default, see {@code BackupBenchmark}.
+ *
+ * @author hantsy
+ */
+@Component
+@Slf4j
+class BackupHandler {
+
+    static final MediaType APPLICATION_GZIP = MediaType.parseMediaType("application/gzip");
+
+    private static final JsonWriterSettings JSON = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+    // looking up the codecs again for every document is measurable
+    private static final DocumentCodec CODEC = new DocumentCodec();
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final ReactiveMongoTemplate template;
+    private final Migrations migrations;
+    private final DataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+    private final List<String> collections;
+    private final Path directory;
+    private final int batchSize;
+    private final int compressionLevel;
+
+    public BackupHandler(ReactiveMongoTemplate template,
+            Migrations migrations,
+            @Value("${backup.directory:backups}") String directory,
+            @Value("${backup.batch-size:1000}") int batchSize,
+            @Value("${backup.compression-level:1}") int compressionLevel) {
+        this.template = template;
+        this.migrations = migrations;
+        this.collections = Arrays.asList(template.getCollectionName(Post.class), template.getCollectionName(Comment.class));
+        this.directory = Paths.get(directory).toAbsolutePath().normalize();
+        this.batchSize = batchSize;
+        this.compressionLevel = compressionLevel;
+    }
+
+    public Mono<ServerResponse> export(ServerRequest req) {
+        String file = "posts-" + LocalDate.now() + ".ndjson.gz";
+        return ok().contentType(APPLICATION_GZIP)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file + "\"")
+                .body(BodyInserters.fromDataBuffers(this.export(new BackupResult(file))));
+    }
+
+    // written to a temporary file first, an interrupted export does not replace the previous one
+    public Mono<ServerResponse> exportToFile(ServerRequest req) {
+        return this.file(req)
+                .flatMap((file) -> {
+                    Path part = file.resolveSibling(file.getFileName() + ".part");
+                    BackupResult result = new BackupResult(this.directory.relativize(file).toString());
+                    return Flux
+                            .using(
+                                    () -> AsynchronousFileChannel.open(part, StandardOpenOption.CREATE,
+                                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING),
+                                    (channel) -> DataBufferUtils.write(this.export(result), channel, 0)
+                                            .doOnNext(DataBufferUtils::release),
+                                    this::close
+                            )
+                            .then(Mono.fromCallable(() -> Files.move(part, file, StandardCopyOption.REPLACE_EXISTING))
+                                    .subscribeOn(Schedulers.elastic()))
+                            .then(ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(result));
+                })
+                .onErrorResume(IllegalArgumentException.class, (e) -> badRequest().syncBody(e.getMessage()));
+    }
+
+    // the upload, or the file given with ?file= in the backup directory
+    public Mono<ServerResponse> importAll(ServerRequest req) {
+        Mono<Flux<DataBuffer>> input = req.queryParam("file").isPresent()
+                ? this.file(req).map((file) -> DataBufferUtils.readAsynchronousFileChannel(
+                        () -> AsynchronousFileChannel.open(file, StandardOpenOption.READ), this.bufferFactory, READ_BUFFER_SIZE))
+                : Mono.just(req.bodyToFlux(DataBuffer.class));
+        return input
+                .flatMap((buffers) -> this.importAll(buffers, new BackupResult(req.queryParam("file").orElse("upload"))))
+                .flatMap((result) -> ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(result))
+                .onErrorResume(IllegalArgumentException.class, (e) -> badRequest().syncBody(e.getMessage()));
+    }
+
+    private Flux<DataBuffer> export(BackupResult result) {
+        long start = System.nanoTime();
+        Flux<String> lines = Flux.fromIterable(this.collections)
+                .concatMap((collection) -> Flux
+                        .from(this.template.getCollection(collection).find())
+                        .map((document) -> {
+                            result.count(this.isPosts(collection), 1);
+                            return new Document("collection", collection).append("document", document).toJson(JSON, CODEC);
+                        }));
+        return GzipNdjson.encode(lines, this.bufferFactory, this.compressionLevel, this.batchSize)
+                .doOnNext((buffer) -> result.bytes.addAndGet(buffer.readableByteCount()))
+                .doOnComplete(() -> result.finish("exported", start));
+    }
+
+    private Mono<BackupResult> importAll(Flux<DataBuffer> input, BackupResult result) {
+        long start = System.nanoTime();
+        return GzipNdjson
+                .decode(input.doOnNext((buffer) -> result.bytes.addAndGet(buffer.readableByteCount())))
+                .map(this::parse)
+                // one group per collection, batches of both are written at the same time
+                .groupBy((line) -> line.getString("collection"))
+                .flatMap((lines) -> lines
+                        .map((line) -> line.get("document", Document.class))
+                        .buffer(this.batchSize)
+                        .concatMap((batch) -> this.insert(lines.key(), batch, result)))
+                // the backup may predate some migrations
+                .then(this.migrations.reset())
+                .then(Mono.fromCallable(() -> result.finish("imported", start)));
+    }
+
+    private Document parse(String line) {
+        Document parsed;
+        try {
+            parsed = Document.parse(line);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("malformed backup line: " + e.getMessage(), e);
+        }
+        if (!this.collections.contains(parsed.getString("collection")) || !(parsed.get("document") instanceof Document)) {
+            throw new IllegalArgumentException("unexpected backup line, collection " + parsed.get("collection"));
+        }
+        return parsed;
+    }
+
+    private Mono<Void> insert(String collection, List<Document> batch, BackupResult result) {
+        return Flux
+                .from(this.template.getCollection(collection).insertMany(batch, new InsertManyOptions().ordered(false)))
+                .then(Mono.fromRunnable(() -> result.count(this.isPosts(collection), batch.size())))
+                .onErrorResume(MongoBulkWriteException.class, (e) -> {
+                    boolean duplicatesOnly = e.getWriteErrors().stream()
+                            .allMatch((error) -> ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY);
+                    if (!duplicatesOnly || e.getWriteConcernError() != null) {
+                        return Mono.error(e);
+                    }
+                    result.count(this.isPosts(collection), batch.size() - e.getWriteErrors().size());
+                    result.skipped.addAndGet(e.getWriteErrors().size());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    // ?file= must name a file of the backup directory
+    private Mono<Path> file(ServerRequest req) {
+        return Mono
+                .fromCallable(() -> {
+                    String name = req.queryParam("file")
+                            .filter((value) -> !value.isEmpty())
+                            .orElseThrow(() -> new IllegalArgumentException("file is required"));
+                    Path file = this.directory.resolve(name).normalize();
+                    if (!file.startsWith(this.directory) || file.equals(this.directory)) {
+                        throw new IllegalArgumentException("file must be in the backup directory: " + name);
+                    }
+                    Files.createDirectories(file.getParent());
+                    return file;
+                })
+                .subscribeOn(Schedulers.elastic());
+    }
+
+    private void close(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("closing backup file failed: {}", e.getMessage());
+        }
+    }
+
+    private boolean isPosts(String collection) {
+        return this.collections.get(0).equals(collection);
+    }
+
+    @Data
+    static class BackupResult {
+
+        private String file;
+        private long posts;
+        private long comments;
+        // import only, documents which already existed
+        private final AtomicLong skipped = new AtomicLong();
+        // compressed
+        private final AtomicLong bytes = new AtomicLong();
+        private long millis;
+
+        BackupResult(String file) {
+            this.file = file;
+        }
+
+        synchronized void count(boolean posts, long count) {
+            if (posts) {
+                this.posts += count;
+            } else {
+                this.comments += count;
+            }
+        }
+
+        BackupResult finish(String operation, long start) {
+            this.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            log.info("{} {} posts and {} comments, {} MB compressed in {} ms, {} MB/s", operation, this.posts, this.comments,
+                    this.bytes.get() / (1024 * 1024), this.millis, String.format("%.1f", this.getMegabytesPerSecond()));
+            return this;
+        }
+
+        public double getMegabytesPerSecond() {
+            return this.millis == 0 ? 0 : this.bytes.get() / (1024.0 * 1024.0) / (this.millis / 1000.0);
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+/**
+ * Streaming bulk creation of posts and comments from line delimited json
+ * ({@code application/stream+json}).
+ * <p>
+ * The upload is read in batches of {@code bulk.batch-size} documents, each batch is written with
+ * one {@code insertMany}, and only a bounded number of batches is in flight, so the upload is read
+ * as fast as it can be written. {@code ?ordered=false} writes unordered batches, a failing document
+ * does not stop the rest of the upload, by default the upload stops at the first failure like an
+ * ordered {@code insertMany}. The result of every document is streamed back in upload order.
+ * <p>
+ * The slugs of a batch of posts are resolved with one query, post batches are written one after
+ * another so that two batches do not pick the same slug.
+ *
+ * @author hantsy
+ */
+@Component
+@Slf4j
+class BulkHandler {
+
+    private final ReactiveMongoTemplate template;
+    private final PostCounters counters;
+    private final ReactiveAuditor auditor;
+    private final AuthorTimeline timeline;
+    private final int batchSize;
+    private final int writeConcurrency;
+
+    public BulkHandler(ReactiveMongoTemplate template,
+            PostCounters counters,
+            ReactiveAuditor auditor,
+            AuthorTimeline timeline,
+            @Value("${bulk.batch-size:500}") int batchSize,
+            @Value("${bulk.write-concurrency:4}") int writeConcurrency) {
+        this.template = template;
+        this.counters = counters;
+        this.auditor = auditor;
+        this.timeline = timeline;
+        this.batchSize = batchSize;
+        this.writeConcurrency = writeConcurrency;
+    }
+
+    public Mono<ServerResponse> createPosts(ServerRequest req) {
+        boolean ordered = isOrdered(req);
+        Flux<BulkResult> results = this.author()
+                .flatMapMany((author) -> req.bodyToFlux(Post.class)
+                        .map(Post::writable)
+                        .index()
+                        .buffer(this.batchSize)
+                        .concatMap((batch) -> this.withSlugs(batch)
+                                .flatMapMany((posts) -> this.insert(posts, Post.class, author, ordered, Post::getSlug))
+                        )
+                        .concatWith(Mono.defer(() -> this.timeline.evict(author.orElse(null))).then(Mono.empty()))
+                );
+        return ok().contentType(MediaType.APPLICATION_STREAM_JSON).body(this.stopAtFailure(results, ordered, "posts"), BulkResult.class);
+    }
+
+    public Mono<ServerResponse> createComments(ServerRequest req) {
+        boolean ordered = isOrdered(req);
+        Slug post = new Slug(req.pathVariable("slug"));
+        Flux<BulkResult> results = this.author()
+                .flatMapMany((author) -> req.bodyToFlux(Comment.class)
+                        .map(Comment::writable)
+                        .index()
+                        .doOnNext((comment) -> comment.getT2().setPost(post))
+                        .buffer(this.batchSize)
+                        // unordered batches are independent, ordered ones have to be written one after another
+                        .flatMapSequential(
+                                (batch) -> this.insert(batch, Comment.class, author, ordered, (c) -> null)
+                                        .collectList()
+                                        .flatMapMany((created) -> this.counters
+                                                .commentsAdded(post.getSlug(), created.stream().filter(BulkResult::isCreated).count())
+                                                .thenMany(Flux.fromIterable(created))),
+                                ordered ? 1 : this.writeConcurrency
+                        )
+                );
+        return ok().contentType(MediaType.APPLICATION_STREAM_JSON).body(this.stopAtFailure(results, ordered, "comments"), BulkResult.class);
+    }
+
+    private Flux<BulkResult> stopAtFailure(Flux<BulkResult> results, boolean ordered, String type) {
+        long start = System.nanoTime();
+        AtomicLong created = new AtomicLong();
+        return (ordered ? results.takeUntil((result) -> !result.isCreated()) : results)
+                .doOnNext((result) -> {
+                    if (result.isCreated()) {
+                        created.incrementAndGet();
+                    }
+                })
+                .doOnComplete(() -> log.info("bulk created {} {} in {} ms", created.get(), type,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    // one query for the slugs taken by all the titles of the batch, indexed prefix regexes
+    private Mono<List<Tuple2<Long, Post>>> withSlugs(List<Tuple2<Long, Post>> batch) {
+        List<String> slugs = batch.stream()
+                .map((item) -> Utils.slugify(item.getT2().getTitle()))
+                .collect(Collectors.toList());
+        List<Pattern> patterns = slugs.stream()
+                .distinct()
+                .map((slug) -> Pattern.compile(Utils.slugPattern(slug)))
+                .collect(Collectors.toList());
+        Query query = query(where("slug").in(patterns));
+        query.fields().include("slug");
+
+        return this.template.find(query, Post.class)
+                .map(Post::getSlug)
+                .collect(Collectors.toCollection(HashSet::new))
+                .map((taken) -> {
+                    for (int i = 0; i < batch.size(); i++) {
+                        String slug = Utils.uniqueSlug(slugs.get(i), taken);
+                        batch.get(i).getT2().setSlug(slug);
+                        taken.add(slug);
+                    }
+                    return batch;
+                });
+    }
+
+    // the auditing fields are set here, the documents bypass the template on the way to insertMany
+    private <T extends CursorPagination.Keyed> Flux<BulkResult> insert(List<Tuple2<Long, T>> batch, Class<T> type,
+            Optional<Username> author, boolean ordered, Function<T, String> slug) {
+        Date now = Date.from(LocalDateTime.now().atZone(ZoneId.systemDefault()).toInstant());
+        List<Document> documents = new ArrayList<>(batch.size());
+        for (Tuple2<Long, T> item : batch) {
+            Document document = new Document();
+            this.template.getConverter().write(item.getT2(), document);
+            ObjectId id = new ObjectId();
+            document.put("_id", id);
+            if (type == Comment.class) {
+                // bulk comments are comments on the post, not replies, see CommentThreads
+                document.remove("parentId");
+                document.put("path", id.toHexString() + "/");
+                document.put("depth", 0);
+            }
+            document.put("createdDate", now);
+            document.put("version", 0L);
+            author.ifPresent((username) -> document.put("author", new Document("username", username.getUsername())));
+            documents.add(document);
+        }
+
+        return Flux
+                .from(this.template.getCollection(this.template.getCollectionName(type))
+                        .insertMany(documents, new InsertManyOptions().ordered(ordered)))
+                .then(Mono.just(new BulkWriteError[0]))
+                .onErrorResume(MongoBulkWriteException.class, (e) -> {
+                    BulkWriteError[] errors = new BulkWriteError[batch.size()];
+                    e.getWriteErrors().forEach((error) -> errors[error.getIndex()] = error);
+                    return Mono.just(errors);
+                })
+                .flatMapIterable((errors) -> {
+                    List<BulkResult> results = new ArrayList<>(batch.size());
+                    boolean failed = false;
+                    for (int i = 0; i < batch.size(); i++) {
+                        Tuple2<Long, T> item = batch.get(i);
+                        BulkWriteError error = i < errors.length ? errors[i] : null;
+                        String id = documents.get(i).getObjectId("_id").toHexString();
+                        if (error != null) {
+                            failed = true;
+                            results.add(new BulkResult(item.getT1(), null, null, BulkResult.FAILED, error.getMessage()));
+                        } else if (failed && ordered) {
+                            // an ordered insertMany stops at the first error
+                            results.add(new BulkResult(item.getT1(), null, null, BulkResult.SKIPPED, null));
+                        } else {
+                            results.add(new BulkResult(item.getT1(), id, slug.apply(item.getT2()), BulkResult.CREATED, null));
+                        }
+                    }
+                    return results;
+                });
+    }
+
+    private Mono<Optional<Username>> author() {
+        return this.auditor.currentUser().map(Optional::of).defaultIfEmpty(Optional.empty());
+    }
+
+    private static boolean isOrdered(ServerRequest req) {
+        return !req.queryParam("ordered").filter("false"::equals).isPresent();
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class BulkResult {
+
+        static final String CREATED = "created";
+        static final String FAILED = "failed";
+        static final String SKIPPED = "skipped";
+
+        // position of the document in the upload
+        private long index;
+        private String id;
+        // posts only
+        private String slug;
+        // created, failed or skipped
+        private String status;
+        private String error;
+
+        @JsonIgnore
+        boolean isCreated() {
+            return CREATED.equals(this.status);
+        }
+    }
+
+}
@@ -14,6 +14,7 @@ import lombok.ToString;
 import org.springframework.data.annotation.CreatedBy;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 /**
@@ -26,12 +27,18 @@ import org.springframework.data.mongodb.core.mapping.Document;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-class Comment {
+class Comment implements CursorPagination.Keyed {
     
     @Id
     private String id;
     private Slug post;
     private String content;
+
+    // null for the comments on the post itself
+    private String parentId;
+    // ids of the ancestors and of the comment, see CommentThreads
+    private String path;
+    private int depth;
     
     @CreatedDate
     private LocalDateTime createdDate;
@@ -39,4 +46,15 @@ class Comment {
     @CreatedBy
     private Username author;
     
+    @Version
+    private Long version;
+
+    /**
+     * The fields of a comment sent by a client that the client may write, the others are managed
+     * by the service.
+     */
+    static Comment writable(Comment body) {
+        return Comment.builder().content(body.getContent()).parentId(body.getParentId()).build();
+    }
+    
 }
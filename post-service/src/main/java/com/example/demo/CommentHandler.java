@@ -6,9 +6,16 @@
 package com.example.demo;
 
 import java.net.URI;
+import java.util.Collections;
+import java.util.Optional;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -19,49 +26,114 @@ import reactor.core.publisher.Mono;
 class CommentHandler {
 
     private final CommentRepository comments;
+    private final CursorPagination pagination;
+    private final PostCounters counters;
+    private final ReactiveAuditor auditor;
+    private final CommentThreads threads;
 
-    public CommentHandler(CommentRepository comments) {
+    public CommentHandler(CommentRepository comments, CursorPagination pagination, PostCounters counters, ReactiveAuditor auditor,
+            CommentThreads threads) {
         this.comments = comments;
+        this.pagination = pagination;
+        this.counters = counters;
+        this.auditor = auditor;
+        this.threads = threads;
     }
 
     public Mono<ServerResponse> all(ServerRequest req) {
-        return ServerResponse.ok().body(this.comments.findAll(), Comment.class);
+        return this.pagination.page(req, Criteria.where("post.slug").is(req.pathVariable("slug")), Comment.class, MediaType.APPLICATION_JSON_UTF8);
     }
 
+    // the comments with their replies in display order
+    public Mono<ServerResponse> thread(ServerRequest req) {
+        return this.threads.thread(req, req.pathVariable("slug"))
+                .flatMap((page) -> CursorPagination.ok(page).body(Flux.fromIterable(page.getItems()), Comment.class))
+                .onErrorResume(IllegalArgumentException.class, (e) -> ServerResponse.badRequest().syncBody(e.getMessage()));
+    }
+
+    public Mono<ServerResponse> replies(ServerRequest req) {
+        return this.comments
+                .findById(req.pathVariable("commentid"))
+                .filter((comment) -> comment.getPost() != null && req.pathVariable("slug").equals(comment.getPost().getSlug()))
+                .flatMap((comment) -> this.threads.replies(req, comment))
+                .flatMap((page) -> CursorPagination.ok(page).body(Flux.fromIterable(page.getItems()), Comment.class))
+                .onErrorResume(IllegalArgumentException.class, (e) -> ServerResponse.badRequest().syncBody(e.getMessage()))
+                .switchIfEmpty(ServerResponse.notFound().build());
+    }
+
+    public Mono<ServerResponse> count(ServerRequest req) {
+        return this.comments.countByPostSlug(req.pathVariable("slug"))
+                .flatMap((count) -> ServerResponse.ok().syncBody(Collections.singletonMap("count", count)));
+    }
+
+    // a reply when the body has the parentId of a comment on the same post
     public Mono<ServerResponse> create(ServerRequest req) {
+        String slug = req.pathVariable("slug");
         return req
                 .bodyToMono(Comment.class)
-                .flatMap((comment) -> this.comments.save(comment))
-                .flatMap((p) -> ServerResponse.created(URI.create("/posts/" + req.pathVariable("slug") + "/comments/" + p.getId())).build());
+                // a version sent makes the comment look not new to the auditing, without a created date
+                .map(Comment::writable)
+                .flatMap(this.auditor::markCreated)
+                .flatMap((comment) -> this.parent(comment, slug)
+                        .map((parent) -> this.threads.place(comment, parent.orElse(null))))
+                .flatMap((comment) -> {
+                    comment.setPost(new Slug(slug));
+                    return this.comments.insert(comment);
+                })
+                .flatMap((p) -> this.counters.commentsAdded(slug, 1L).then(Mono.just(p)))
+                .flatMap((p) -> ServerResponse.created(URI.create("/posts/" + slug + "/comments/" + p.getId())).build())
+                .onErrorResume(IllegalArgumentException.class, (e) -> ServerResponse.badRequest().syncBody(e.getMessage()));
+    }
+
+    private Mono<Optional<Comment>> parent(Comment comment, String slug) {
+        if (comment.getParentId() == null) {
+            return Mono.just(Optional.empty());
+        }
+        return this.comments.findById(comment.getParentId())
+                .filter((parent) -> parent.getPost() != null && slug.equals(parent.getPost().getSlug()))
+                .map(Optional::of)
+                .switchIfEmpty(Mono.defer(() -> Mono.error(new IllegalArgumentException("no such comment to reply to: " + comment.getParentId()))));
     }
 
     public Mono<ServerResponse> get(ServerRequest req) {
         return this.comments
                 .findById(req.pathVariable("commentid"))
-                .flatMap((comment) -> ServerResponse.ok().body(Mono.just(comment), Comment.class))
+                .flatMap((comment) -> ETags.ok(req, ETags.of(comment.getVersion()), comment))
                 .switchIfEmpty(ServerResponse.notFound().build());
     }
 
+    // If-Match makes the update conditional on the version the client has seen
     public Mono<ServerResponse> update(ServerRequest req) {
-        return Mono
-                .zip(
-                        (data) -> {
-                            Comment p = (Comment) data[0];
-                            Comment p2 = (Comment) data[1];
-
-                            p.setContent(p2.getContent());
-                            return p;
-                        },
-                        this.comments.findById(req.pathVariable("commentid")),
-                        req.bodyToMono(Comment.class)
-                )
-                .cast(Comment.class)
-                .flatMap((comment) -> this.comments.save(comment))
-                .flatMap((comment) -> ServerResponse.noContent().build());
+        return this.comments
+                .findById(req.pathVariable("commentid"))
+                .flatMap((comment) -> {
+                    if (ETags.isPreconditionFailed(req, ETags.of(comment.getVersion()))) {
+                        return ServerResponse.status(HttpStatus.PRECONDITION_FAILED).eTag(ETags.of(comment.getVersion())).build();
+                    }
+                    return req.bodyToMono(Comment.class)
+                            .flatMap((data) -> {
+                                comment.setContent(data.getContent());
+                                return this.comments.save(comment);
+                            })
+                            .flatMap((saved) -> ServerResponse.noContent().eTag(ETags.of(saved.getVersion())).build())
+                            // modified concurrently since it was read
+                            .onErrorResume(OptimisticLockingFailureException.class, (e) -> ServerResponse.status(
+                                    ETags.hasPrecondition(req) ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT
+                            ).build());
+                })
+                .switchIfEmpty(ServerResponse.notFound().build());
     }
 
+    // the replies are deleted with the comment
     public Mono<ServerResponse> delete(ServerRequest req) {
-        return ServerResponse.noContent().build(this.comments.deleteById(req.pathVariable("commentid")));
+        return this.comments
+                .findById(req.pathVariable("commentid"))
+                .flatMap((comment) -> this.threads.remove(comment)
+                        // comments stored before they referenced their post are not counted
+                        .flatMap((removed) -> comment.getPost() == null
+                                ? Mono.empty()
+                                : this.counters.commentsRemoved(comment.getPost().getSlug(), removed)))
+                .then(ServerResponse.noContent().build());
     }
 
 }
@@ -0,0 +1,86 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Makes the comments stored before replies existed comments on the post, with their id as path,
+ * so {@link CommentThreads} finds them. Runs once, see {@link Migrations}, in the background so a
+ * large collection does not hold up the start, the legacy comments are missing from the threads
+ * until it completes.
+ * <p>
+ * The comments created by replicas of the former version have no path either and are not
+ * migrated once the migration completed, so the former replicas are to be stopped before the
+ * first one of this version starts (no rolling deploy across this version).
+ *
+ * @author hantsy
+ */
+@Component
+@Slf4j
+class CommentPathInitializer implements InitializingBean, DisposableBean {
+
+    static final String MIGRATION = "comment-paths";
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final ReactiveMongoTemplate template;
+    private final Migrations migrations;
+    private Disposable job;
+
+    public CommentPathInitializer(ReactiveMongoTemplate template, Migrations migrations) {
+        this.template = template;
+        this.migrations = migrations;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        String collection = this.template.getCollectionName(Comment.class);
+        Query legacy = query(where("path").exists(false));
+        legacy.fields().include("_id");
+
+        this.job = this.migrations
+                .once(MIGRATION, this.template.find(legacy, Document.class, collection)
+                        .<WriteModel<Document>>map((comment) -> new UpdateOneModel<>(
+                                new Document("_id", comment.get("_id")),
+                                new Document("$set", new Document("path", id(comment) + "/").append("depth", 0))
+                        ))
+                        .buffer(BATCH_SIZE)
+                        .concatMap((batch) -> this.template.getCollection(collection).bulkWrite(batch, new BulkWriteOptions().ordered(false)))
+                        .reduce(0L, (count, result) -> count + result.getModifiedCount())
+                        .filter((count) -> count > 0)
+                        .doOnNext((count) -> log.info("initialized the path of {} comments", count)))
+                .subscribe(
+                        null,
+                        (e) -> log.warn("comment path migration failed, it runs again at the next start: {}", e.getMessage())
+                );
+    }
+
+    @Override
+    public void destroy() {
+        this.job.dispose();
+    }
+
+    private static String id(Document comment) {
+        Object id = comment.get("_id");
+        return id instanceof ObjectId ? ((ObjectId) id).toHexString() : id.toString();
+    }
+
+}
@@ -6,10 +6,13 @@
 package com.example.demo;
 
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Mono;
 
 /**
  *
  * @author hantsy
  */
 interface CommentRepository extends ReactiveMongoRepository<Comment, String> {
+    // counted on the index, see IndexInitializer
+    Mono<Long> countByPostSlug(String slug);
 }
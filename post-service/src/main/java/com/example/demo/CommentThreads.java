@@ -0,0 +1,155 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import java.net.URI;
+import java.util.regex.Pattern;
+import com.mongodb.client.result.DeleteResult;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Reply threads of comments as materialized paths.
+ * <p>
+ * The path of a comment is the ids of its ancestors and its own id, each followed by a
+ * {@code /}. Ids grow with time and {@code /} sorts before any id character, so sorting on the
+ * path lists a thread in display order, every comment right before its replies and the replies
+ * oldest first. A thread or the replies to a comment are then one range query on the
+ * {@code (post.slug, path, depth)} index, whatever the shape of the tree. Deleting a comment
+ * deletes its replies the same way, they would be left without a parent otherwise.
+ * <p>
+ * Pages are selected by the {@code after} (path of the last comment seen) and {@code size}
+ * request params, {@code depth} limits the levels returned, up to {@code comments.max-depth}.
+ * {@code depth=1} pages through a single level, so the replies of every comment can be paged
+ * separately.
+ *
+ * @author hantsy
+ */
+@Component
+class CommentThreads {
+
+    static final Sort SORT = Sort.by(Sort.Direction.ASC, "path");
+
+    private static final Pattern PATH = Pattern.compile("([0-9a-f]{24}/)+");
+    // after any path character
+    private static final char PATH_END = '\uffff';
+
+    private final ReactiveMongoTemplate template;
+    private final CursorPagination pagination;
+    private final int maxDepth;
+
+    public CommentThreads(ReactiveMongoTemplate template,
+            CursorPagination pagination,
+            @Value("${comments.max-depth:20}") int maxDepth) {
+        this.template = template;
+        this.pagination = pagination;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Makes the comment a reply to the parent, or a comment on the post when there is none.
+     *
+     * @throws IllegalArgumentException if the parent is nested {@code comments.max-depth} levels
+     * deep already
+     */
+    public Comment place(Comment comment, Comment parent) {
+        String id = new ObjectId().toHexString();
+        comment.setId(id);
+        if (parent == null) {
+            comment.setParentId(null);
+            comment.setPath(id + "/");
+            comment.setDepth(0);
+            return comment;
+        }
+        if (parent.getDepth() + 1 >= this.maxDepth) {
+            throw new IllegalArgumentException("replies are nested at most " + this.maxDepth + " levels deep");
+        }
+        comment.setParentId(parent.getId());
+        comment.setPath(parent.getPath() + id + "/");
+        comment.setDepth(parent.getDepth() + 1);
+        return comment;
+    }
+
+    /**
+     * The requested page of the comments of a post, in display order.
+     */
+    public Mono<CursorPagination.CursorPage<Comment>> thread(ServerRequest req, String slug) {
+        return this.find(req, slug, "", 0);
+    }
+
+    /**
+     * The requested page of the replies to a comment and their replies, in display order.
+     */
+    public Mono<CursorPagination.CursorPage<Comment>> replies(ServerRequest req, Comment comment) {
+        return this.find(req, comment.getPost().getSlug(), comment.getPath(), comment.getDepth() + 1);
+    }
+
+    /**
+     * Deletes the comment with its replies and their replies, and returns the number deleted.
+     */
+    public Mono<Long> remove(Comment comment) {
+        // comments without a post or path are never replied to
+        Query query = comment.getPost() == null || comment.getPath() == null
+                ? new Query(where("_id").is(comment.getId()))
+                : new Query(where("post.slug").is(comment.getPost().getSlug()))
+                        .addCriteria(where("path").gte(comment.getPath()).lt(comment.getPath() + PATH_END));
+        return this.template.remove(query, Comment.class).map(DeleteResult::getDeletedCount);
+    }
+
+    private Mono<CursorPagination.CursorPage<Comment>> find(ServerRequest req, String slug, String prefix, int minDepth) {
+        return Mono.defer(() -> {
+            int size = this.pagination.size(req);
+            int levels = req.queryParam("depth")
+                    .map(Integer::parseInt)
+                    .map((d) -> Math.max(1, Math.min(d, this.maxDepth)))
+                    .orElse(this.maxDepth);
+            String after = req.queryParam("after")
+                    .map((value) -> {
+                        if (!PATH.matcher(value).matches()) {
+                            throw new IllegalArgumentException("invalid after: " + value);
+                        }
+                        return value;
+                    })
+                    .filter((value) -> value.compareTo(prefix) > 0)
+                    // the comment itself is not one of its replies
+                    .orElse(prefix);
+
+            Criteria path = where("path").gt(after);
+            if (!prefix.isEmpty()) {
+                path = path.lt(prefix + PATH_END);
+            }
+            Query query = new Query(where("post.slug").is(slug))
+                    .addCriteria(path)
+                    .addCriteria(where("depth").gte(minDepth).lt(minDepth + levels))
+                    .with(SORT)
+                    .limit(size + 1);
+
+            return this.template.find(query, Comment.class)
+                    .collectList()
+                    .map((items) -> items.size() <= size
+                            ? new CursorPagination.CursorPage<>(items, null)
+                            : new CursorPagination.CursorPage<>(items.subList(0, size), next(req, items.get(size - 1).getPath())));
+        });
+    }
+
+    private static URI next(ServerRequest req, String after) {
+        return UriComponentsBuilder.fromUri(req.uri())
+                .replaceQueryParam("after", after)
+                .build(true)
+                .toUri();
+    }
+
+}
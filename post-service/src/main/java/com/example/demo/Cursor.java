@@ -0,0 +1,60 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+/**
+ * Position in a listing ordered by {@code (createdDate desc, id desc)}, passed to clients as an
+ * opaque continuation token.
+ *
+ * @author hantsy
+ */
+@Data
+@AllArgsConstructor
+class Cursor {
+
+    private LocalDateTime createdDate;
+    private String id;
+
+    /**
+     * Criteria matching everything after this position.
+     */
+    Criteria after() {
+        return new Criteria().orOperator(
+                Criteria.where("createdDate").lt(this.createdDate),
+                Criteria.where("createdDate").is(this.createdDate).and("id").lt(this.id)
+        );
+    }
+
+    String encode() {
+        String raw = this.createdDate + "|" + this.id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token was not created by {@link #encode()}
+     */
+    static Cursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.indexOf('|');
+            if (separator < 0) {
+                throw new IllegalArgumentException("invalid cursor: " + token);
+            }
+            return new Cursor(LocalDateTime.parse(raw.substring(0, separator)), raw.substring(separator + 1));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid cursor: " + token, e);
+        }
+    }
+
+}
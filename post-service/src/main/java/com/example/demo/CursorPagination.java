@@ -0,0 +1,158 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.web.reactive.function.server.ServerResponse.badRequest;
+
+/**
+ * Keyset pagination on {@code (createdDate desc, id desc)}.
+ * <p>
+ * The page is selected by the {@code cursor} and {@code size} request params, the size is capped
+ * at {@code pagination.max-size}. The link to the next page is returned in the {@code Link}
+ * header, there is none on the last page.
+ *
+ * @author hantsy
+ */
+@Component
+class CursorPagination {
+
+    static final Sort SORT = Sort.by(Sort.Direction.DESC, "createdDate", "id");
+
+    private final ReactiveMongoTemplate template;
+    private final int defaultSize;
+    private final int maxSize;
+
+    public CursorPagination(ReactiveMongoTemplate template,
+            @Value("${pagination.default-size:20}") int defaultSize,
+            @Value("${pagination.max-size:100}") int maxSize) {
+        this.template = template;
+        this.defaultSize = defaultSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Responds with the requested page, or 400 if the {@code cursor} or {@code size} is invalid.
+     */
+    public <T extends Keyed> Mono<ServerResponse> page(ServerRequest req, Criteria scope, Class<T> type, MediaType mediaType) {
+        return this.page(req, scope, type, this.template.getCollectionName(type), mediaType);
+    }
+
+    /**
+     * Responds with the requested page of a collection read into the given type, see {@link #find(ServerRequest, Criteria, Class, String)}.
+     */
+    public <T extends Keyed> Mono<ServerResponse> page(ServerRequest req, Criteria scope, Class<T> type, String collection, MediaType mediaType) {
+        return this.find(req, scope, type, collection)
+                .flatMap((page) -> ok(page).contentType(mediaType).body(Flux.fromIterable(page.getItems()), type))
+                .onErrorResume(IllegalArgumentException.class, (e) -> badRequest().syncBody(e.getMessage()));
+    }
+
+    /**
+     * Finds the requested page, emits an {@link IllegalArgumentException} if the {@code cursor}
+     * or {@code size} is invalid.
+     * <p>
+     * When the documents of the collection are read into another type than the one mapped to it,
+     * eg. a {@link PostSummary}, only the fields of that type are fetched.
+     */
+    public <T extends Keyed> Mono<CursorPage<T>> find(ServerRequest req, Criteria scope, Class<T> type, String collection) {
+        return Mono.defer(() -> {
+            int size = this.size(req);
+            Query query = this.query(req, scope).limit(size + 1);
+            if (!collection.equals(this.template.getCollectionName(type))) {
+                Projections.include(query, this.template, type);
+            }
+
+            // one more than requested tells whether there is a next page
+            return this.template.find(query, type, collection)
+                    .collectList()
+                    .map((items) -> {
+                        if (items.size() <= size) {
+                            return new CursorPage<>(items, null);
+                        }
+                        T last = items.get(size - 1);
+                        return new CursorPage<>(items.subList(0, size), next(req, new Cursor(last.getCreatedDate(), last.getId())));
+                    });
+        });
+    }
+
+    static ServerResponse.BodyBuilder ok(CursorPage<?> page) {
+        ServerResponse.BodyBuilder response = ServerResponse.ok();
+        if (page.getNext() != null) {
+            response.header(HttpHeaders.LINK, "<" + page.getNext() + ">; rel=\"next\"");
+        }
+        return response;
+    }
+
+    /**
+     * The requested page size, capped at {@code pagination.max-size}.
+     *
+     * @throws NumberFormatException if the size is not a number
+     */
+    int size(ServerRequest req) {
+        return req.queryParam("size")
+                .map(Integer::parseInt)
+                .map((s) -> Math.max(1, Math.min(s, this.maxSize)))
+                .orElse(this.defaultSize);
+    }
+
+    private Query query(ServerRequest req, Criteria scope) {
+        Criteria criteria = req.queryParam("cursor")
+                .map(Cursor::decode)
+                .map(Cursor::after)
+                .map((after) -> scope == null ? after : new Criteria().andOperator(scope, after))
+                .orElse(scope);
+
+        Query query = new Query();
+        if (criteria != null) {
+            query.addCriteria(criteria);
+        }
+        return query.with(SORT);
+    }
+
+    private static URI next(ServerRequest req, Cursor cursor) {
+        return UriComponentsBuilder.fromUri(req.uri())
+                .replaceQueryParam("cursor", cursor.encode())
+                .build(true)
+                .toUri();
+    }
+
+    /**
+     * Documents which can be listed with a {@link Cursor}.
+     */
+    interface Keyed {
+
+        LocalDateTime getCreatedDate();
+
+        String getId();
+    }
+
+    @Data
+    @AllArgsConstructor
+    static class CursorPage<T> {
+
+        private List<T> items;
+        private URI next;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import java.util.List;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.web.reactive.function.server.ServerResponse.status;
+
+/**
+ * Entity tags derived from the {@code @Version} of a document, and the conditional request
+ * checks built on them.
+ * <p>
+ * The counters of a post are changed without a new version, so edits do not conflict with them,
+ * the tags of a read of a post include them. {@code If-Match} compares versions only, it accepts
+ * the tags of any read of the version.
+ *
+ * @author hantsy
+ */
+final class ETags {
+
+    private ETags() {
+    }
+
+    /**
+     * The entity tag of the given version of a document.
+     */
+    static String of(Long version) {
+        return "\"" + (version == null ? 0L : version) + "\"";
+    }
+
+    /**
+     * The entity tag of the given version of a document rendered as another view, e.g. a summary.
+     */
+    static String of(Long version, String view) {
+        return "\"" + (version == null ? 0L : version) + "-" + view + "\"";
+    }
+
+    /**
+     * The entity tag of a read of the given version of a post with the given counters.
+     */
+    static String of(Long version, long commentCount, long favoriteCount) {
+        return of(version, commentCount + "-" + favoriteCount);
+    }
+
+    /**
+     * The entity tag of a read of the given version of a post with the given counters, rendered
+     * as another view.
+     */
+    static String of(Long version, long commentCount, long favoriteCount, String view) {
+        return of(version, commentCount + "-" + favoriteCount + "-" + view);
+    }
+
+    /**
+     * Whether the client copy is current according to {@code If-None-Match}, weak comparison.
+     */
+    static boolean isNotModified(ServerRequest req, String etag) {
+        List<String> tags = req.headers().asHttpHeaders().getIfNoneMatch();
+        for (String tag : tags) {
+            if ("*".equals(tag) || etag.equals(tag.startsWith("W/") ? tag.substring(2) : tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether an {@code If-Match} precondition is given and does not match the version tag,
+     * strong comparison of the version.
+     */
+    static boolean isPreconditionFailed(ServerRequest req, String etag) {
+        List<String> tags = req.headers().asHttpHeaders().getIfMatch();
+        // "3" is the version tag, "3-..." the tags of the reads of the version
+        String read = etag.substring(0, etag.length() - 1) + "-";
+        return !tags.isEmpty() && !tags.contains("*") && tags.stream().noneMatch((tag) -> tag.equals(etag) || tag.startsWith(read));
+    }
+
+    /**
+     * Whether the request carries an {@code If-Match} precondition.
+     */
+    static boolean hasPrecondition(ServerRequest req) {
+        return !req.headers().asHttpHeaders().getIfMatch().isEmpty();
+    }
+
+    /**
+     * 200 with the body, or 304 without serializing it when the client copy is current.
+     */
+    static Mono<ServerResponse> ok(ServerRequest req, String etag, Object body) {
+        if (isNotModified(req, etag)) {
+            return status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ServerResponse.ok().eTag(etag).body(BodyInserters.fromObject(body));
+    }
+
+}
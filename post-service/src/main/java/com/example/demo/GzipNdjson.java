@@ -0,0 +1,306 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Gzip compressed NDJSON, one JSON document per line, as streams of data buffers.
+ * <p>
+ * {@link java.util.zip.GZIPOutputStream} and {@link java.util.zip.GZIPInputStream} need blocking
+ * streams, here the deflater and the inflater are fed buffer by buffer instead, so only a chunk of
+ * lines and the compression window are in memory at any time. The output is a regular gzip file,
+ * the input may also have several gzip members, like files joined with {@code cat}.
+ *
+ * @author hantsy
+ */
+final class GzipNdjson {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final byte[] HEADER = {
+        (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private GzipNdjson() {
+    }
+
+    /**
+     * Compresses the lines with the given deflate level, {@code linesPerChunk} lines are deflated at once.
+     */
+    static Flux<DataBuffer> encode(Flux<String> lines, DataBufferFactory factory, int level, int linesPerChunk) {
+        return Flux.using(
+                () -> new Encoder(level),
+                (encoder) -> Flux.concat(
+                        Mono.fromSupplier(() -> factory.wrap(HEADER.clone())),
+                        lines.buffer(linesPerChunk).handle((chunk, sink) -> {
+                            DataBuffer buffer = encoder.deflate(chunk, factory);
+                            if (buffer.readableByteCount() > 0) {
+                                sink.next(buffer);
+                            } else {
+                                DataBufferUtils.release(buffer);
+                            }
+                        }),
+                        Mono.fromSupplier(() -> encoder.finish(factory))
+                ),
+                Encoder::end
+        );
+    }
+
+    /**
+     * The lines of the compressed input, empty lines are skipped.
+     *
+     * @throws IllegalArgumentException (as an error signal) if the input is not gzip or truncated
+     */
+    static Flux<String> decode(Flux<DataBuffer> input) {
+        return Flux.using(
+                Decoder::new,
+                (decoder) -> input
+                        .concatMapIterable((buffer) -> {
+                            byte[] bytes = new byte[buffer.readableByteCount()];
+                            buffer.read(bytes);
+                            DataBufferUtils.release(buffer);
+                            return decoder.inflate(bytes);
+                        })
+                        .concatWith(Flux.defer(() -> Flux.fromIterable(decoder.finish()))),
+                Decoder::end
+        );
+    }
+
+    private static final class Encoder {
+
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] out = new byte[BUFFER_SIZE];
+        private long size;
+
+        Encoder(int level) {
+            this.deflater = new Deflater(level, true);
+        }
+
+        DataBuffer deflate(List<String> lines, DataBufferFactory factory) {
+            StringBuilder chunk = new StringBuilder();
+            for (String line : lines) {
+                chunk.append(line).append('\n');
+            }
+            byte[] bytes = chunk.toString().getBytes(StandardCharsets.UTF_8);
+            this.crc.update(bytes);
+            this.size += bytes.length;
+            this.deflater.setInput(bytes);
+
+            DataBuffer buffer = factory.allocateBuffer(BUFFER_SIZE);
+            while (!this.deflater.needsInput()) {
+                buffer.write(this.out, 0, this.deflater.deflate(this.out));
+            }
+            return buffer;
+        }
+
+        DataBuffer finish(DataBufferFactory factory) {
+            this.deflater.finish();
+            DataBuffer buffer = factory.allocateBuffer(BUFFER_SIZE);
+            while (!this.deflater.finished()) {
+                buffer.write(this.out, 0, this.deflater.deflate(this.out));
+            }
+            byte[] trailer = new byte[8];
+            writeInt(trailer, 0, this.crc.getValue());
+            writeInt(trailer, 4, this.size);
+            return buffer.write(trailer);
+        }
+
+        void end() {
+            this.deflater.end();
+        }
+    }
+
+    private static final class Decoder {
+
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] out = new byte[BUFFER_SIZE];
+        // header or trailer bytes split across buffers
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private State state = State.HEADER;
+        private boolean started;
+        private long size;
+
+        List<String> inflate(byte[] bytes) {
+            List<String> lines = new ArrayList<>();
+            int offset = 0;
+            while (offset < bytes.length) {
+                switch (this.state) {
+                    case HEADER: {
+                        this.started = true;
+                        int before = this.pending.size();
+                        this.pending.write(bytes, offset, bytes.length - offset);
+                        int length = headerLength(this.pending.toByteArray());
+                        if (length < 0) {
+                            return lines;
+                        }
+                        offset += length - before;
+                        this.pending.reset();
+                        this.state = State.BODY;
+                        break;
+                    }
+                    case BODY: {
+                        this.inflater.setInput(bytes, offset, bytes.length - offset);
+                        this.inflateInput(lines);
+                        offset = bytes.length - this.inflater.getRemaining();
+                        if (this.inflater.finished()) {
+                            this.state = State.TRAILER;
+                        }
+                        break;
+                    }
+                    case TRAILER: {
+                        int length = Math.min(8 - this.pending.size(), bytes.length - offset);
+                        this.pending.write(bytes, offset, length);
+                        offset += length;
+                        if (this.pending.size() == 8) {
+                            this.checkTrailer(this.pending.toByteArray());
+                            // another gzip member may follow
+                            this.pending.reset();
+                            this.inflater.reset();
+                            this.crc.reset();
+                            this.size = 0;
+                            this.started = false;
+                            this.state = State.HEADER;
+                        }
+                    }
+                }
+            }
+            return lines;
+        }
+
+        List<String> finish() {
+            if (this.started) {
+                throw new IllegalArgumentException("truncated gzip input");
+            }
+            List<String> lines = new ArrayList<>();
+            this.endLine(lines);
+            return lines;
+        }
+
+        void end() {
+            this.inflater.end();
+        }
+
+        private void inflateInput(List<String> lines) {
+            try {
+                int count;
+                while ((count = this.inflater.inflate(this.out)) > 0) {
+                    this.crc.update(this.out, 0, count);
+                    this.size += count;
+                    this.split(count, lines);
+                }
+                if (this.inflater.needsDictionary()) {
+                    throw new IllegalArgumentException("corrupt gzip input: preset dictionary");
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("corrupt gzip input: " + e.getMessage(), e);
+            }
+        }
+
+        private void split(int count, List<String> lines) {
+            int start = 0;
+            for (int i = 0; i < count; i++) {
+                if (this.out[i] == '\n') {
+                    this.line.write(this.out, start, i - start);
+                    this.endLine(lines);
+                    start = i + 1;
+                }
+            }
+            this.line.write(this.out, start, count - start);
+        }
+
+        private void endLine(List<String> lines) {
+            if (this.line.size() > 0) {
+                lines.add(new String(this.line.toByteArray(), StandardCharsets.UTF_8));
+                this.line.reset();
+            }
+        }
+
+        private void checkTrailer(byte[] trailer) {
+            if (readInt(trailer, 0) != this.crc.getValue() || readInt(trailer, 4) != (this.size & 0xffffffffL)) {
+                throw new IllegalArgumentException("corrupt gzip input: checksum mismatch");
+            }
+        }
+    }
+
+    private enum State {
+        HEADER, BODY, TRAILER
+    }
+
+    // length of the gzip member header at the start of the bytes, -1 if incomplete
+    private static int headerLength(byte[] bytes) {
+        if (bytes.length < 10) {
+            return -1;
+        }
+        if ((bytes[0] & 0xff | (bytes[1] & 0xff) << 8) != GZIP_MAGIC || bytes[2] != Deflater.DEFLATED) {
+            throw new IllegalArgumentException("not a gzip input");
+        }
+        int flags = bytes[3];
+        int position = 10;
+        if ((flags & FEXTRA) != 0) {
+            if (bytes.length < position + 2) {
+                return -1;
+            }
+            position += 2 + (bytes[position] & 0xff | (bytes[position + 1] & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            position = skipZeroTerminated(bytes, position);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            position = skipZeroTerminated(bytes, position);
+        }
+        if ((flags & FHCRC) != 0 && position >= 0) {
+            position += 2;
+        }
+        return position < 0 || position > bytes.length ? -1 : position;
+    }
+
+    private static int skipZeroTerminated(byte[] bytes, int position) {
+        if (position < 0) {
+            return -1;
+        }
+        for (int i = position; i < bytes.length; i++) {
+            if (bytes[i] == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 4; i++) {
+            bytes[offset + i] = (byte) (value >> (8 * i));
+        }
+    }
+
+    private static long readInt(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            value |= (bytes[offset + i] & 0xffL) << (8 * i);
+        }
+        return value;
+    }
+
+}
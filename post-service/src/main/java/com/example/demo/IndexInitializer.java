@@ -0,0 +1,60 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import java.time.Duration;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.TextIndexDefinition;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+/**
+ * Ensures the indexes used by the queries in {@link PostRepository} and {@link CommentRepository}
+ * exist before the application starts serving requests, the reactive template does not create
+ * indexes from the mapping annotations.
+ *
+ * @author hantsy
+ */
+@Component
+@Slf4j
+class IndexInitializer implements InitializingBean {
+
+    // a match in the title ranks a post higher than the same match in the content
+    private static final float TITLE_WEIGHT = 10F;
+
+    private final ReactiveMongoTemplate template;
+
+    public IndexInitializer(ReactiveMongoTemplate template) {
+        this.template = template;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Flux
+            .merge(
+                this.template.indexOps(Post.class)
+                    .ensureIndex(new Index().on("slug", Sort.Direction.ASC).unique().named("slug")),
+                this.template.indexOps(Post.class)
+                    .ensureIndex(new Index().on("createdDate", Sort.Direction.DESC).on("_id", Sort.Direction.DESC).named("createdDate_id")),
+                this.template.indexOps(Post.class)
+                    .ensureIndex(new Index().on("author.username", Sort.Direction.ASC).on("createdDate", Sort.Direction.DESC).on("_id", Sort.Direction.DESC).named("author_username_createdDate_id")),
+                this.template.indexOps(Post.class)
+                    .ensureIndex(TextIndexDefinition.builder().onField("title", TITLE_WEIGHT).onField("content").named("title_content_text").build()),
+                this.template.indexOps(Comment.class)
+                    .ensureIndex(new Index().on("post.slug", Sort.Direction.ASC).on("createdDate", Sort.Direction.DESC).on("_id", Sort.Direction.DESC).named("post_slug_createdDate_id")),
+                // the depth limit is checked on the index keys, see CommentThreads
+                this.template.indexOps(Comment.class)
+                    .ensureIndex(new Index().on("post.slug", Sort.Direction.ASC).on("path", Sort.Direction.ASC).on("depth", Sort.Direction.ASC).named("post_slug_path_depth"))
+            )
+            .doOnNext(index -> log.info("ensured index: {}", index))
+            .blockLast(Duration.ofSeconds(30L));
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import java.util.Date;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * One-time migrations of the stored documents, run at startup until they complete once.
+ * <p>
+ * A completed migration is recorded by name in the {@code migrations} collection and skipped at
+ * the next starts, so a migration scanning a whole collection does not slow down every start. A
+ * migration which fails or is interrupted runs again at the next start, migrations are
+ * idempotent. Importing a backup, which may hold documents of any age, forgets the completed
+ * migrations.
+ * <p>
+ * The documents written by replicas of the former version after a migration completed are left as
+ * they are, so a version adding a migration is deployed by stopping the former replicas before the
+ * first new one starts, not by a rolling deploy.
+ *
+ * @author hantsy
+ */
+@Component
+@Slf4j
+class Migrations {
+
+    static final String COLLECTION = "migrations";
+
+    private final ReactiveMongoTemplate template;
+
+    public Migrations(ReactiveMongoTemplate template) {
+        this.template = template;
+    }
+
+    /**
+     * Runs the migration unless it completed already, and records it as completed.
+     */
+    public Mono<Void> once(String name, Mono<?> migration) {
+        return this.template.exists(query(where("_id").is(name)), COLLECTION)
+                .flatMap((completed) -> completed
+                        ? Mono.empty()
+                        : migration.then(this.template.save(new Document("_id", name).append("completedAt", new Date()), COLLECTION)))
+                .then();
+    }
+
+    /**
+     * Makes the migrations run again at the next start.
+     */
+    public Mono<Void> reset() {
+        return this.template.remove(query(where("_id").exists(true)), COLLECTION)
+                .filter((result) -> result.getDeletedCount() > 0)
+                .doOnNext((result) -> log.info("the migrations run again at the next start"))
+                .then();
+    }
+
+}
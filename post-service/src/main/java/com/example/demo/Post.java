@@ -14,6 +14,7 @@ import lombok.ToString;
 import org.springframework.data.annotation.CreatedBy;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 /**
@@ -26,7 +27,7 @@ import org.springframework.data.mongodb.core.mapping.Document;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-class Post {
+class Post implements CursorPagination.Keyed {
     
     @Id
     private String id;
@@ -40,4 +41,19 @@ class Post {
     @CreatedBy
     private Username author;
     
+    @Version
+    private Long version;
+    
+    // maintained by PostCounters
+    private long commentCount;
+    private long favoriteCount;
+
+    /**
+     * The fields of a post sent by a client that the client may write, the others are managed by
+     * the service.
+     */
+    static Post writable(Post body) {
+        return Post.builder().title(body.getTitle()).content(body.getContent()).build();
+    }
+    
 }
@@ -0,0 +1,209 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Read-through cache of posts by slug, a small local tier in front of a Redis tier shared by all
+ * the post-service replicas.
+ * <p>
+ * An evicted post is removed from Redis and the slug is published on {@code posts:cache:evictions}
+ * in the same script, every replica drops its local copy when it receives the message. Local
+ * entries expire after a short time anyway, in case a message is lost. When Redis is not available
+ * posts are loaded from the database.
+ * <p>
+ * Evicting a post also increments its generation in {@code posts:cache:{slug}:generation}. A post
+ * loaded from the database is only stored, in Redis and locally, if the generation read before
+ * loading it is still the current one, so a read which started before an update does not cache the
+ * former post after the eviction.
+ * <p>
+ * The hit ratio of each tier is published as the {@code cache.hit.ratio} gauge tagged with the
+ * cache name, {@code posts.local} or {@code posts.redis}.
+ *
+ * @author hantsy
+ */
+@Component
+@Slf4j
+class PostCache {
+
+    static final String EVICTIONS_CHANNEL = "posts:cache:evictions";
+
+    private static final String KEY_PREFIX = "posts:cache:";
+    private static final RedisScript<Long> EVICT_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('DEL', KEYS[1]) "
+                    + "redis.call('INCR', KEYS[2]) "
+                    + "redis.call('PEXPIRE', KEYS[2], ARGV[3]) "
+                    + "return redis.call('PUBLISH', ARGV[1], ARGV[2])",
+            Long.class
+    );
+    // 1 when stored, 0 when the post was evicted since the generation was read
+    private static final RedisScript<Long> STORE_SCRIPT = new DefaultRedisScript<>(
+            "if (redis.call('GET', KEYS[2]) or '0') ~= ARGV[1] then return 0 end "
+                    + "redis.call('SET', KEYS[1], ARGV[2], 'PX', ARGV[3]) "
+                    + "return 1",
+            Long.class
+    );
+
+    private final Cache<String, Post> local;
+    private final ReactiveRedisTemplate<String, Post> redis;
+    private final ReactiveRedisTemplate<String, String> redisCommands;
+    private final ObjectMapper objectMapper;
+    private final Duration ttl;
+    private final Counter redisHits;
+    private final Counter redisMisses;
+
+    public PostCache(ReactiveRedisConnectionFactory connectionFactory,
+            RedisMessageListenerContainer listenerContainer,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${posts.cache.local.max-size:1000}") long localMaxSize,
+            @Value("${posts.cache.local.ttl:60s}") String localTtl,
+            @Value("${posts.cache.ttl:10m}") String ttl) {
+        this.local = Caffeine.newBuilder()
+                .maximumSize(localMaxSize)
+                .expireAfterWrite(DurationStyle.detectAndParse(localTtl).toMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        this.ttl = DurationStyle.detectAndParse(ttl);
+
+        Jackson2JsonRedisSerializer<Post> serializer = new Jackson2JsonRedisSerializer<>(Post.class);
+        serializer.setObjectMapper(objectMapper);
+        this.redis = new ReactiveRedisTemplate<>(
+                connectionFactory,
+                RedisSerializationContext.<String, Post>newSerializationContext(new StringRedisSerializer())
+                        .value(serializer)
+                        .build()
+        );
+        this.redisCommands = new ReactiveRedisTemplate<>(connectionFactory, RedisSerializationContext.string());
+        this.objectMapper = objectMapper;
+
+        // reactive pub/sub is not available in this Spring Data Redis version, the listener runs on the container threads
+        listenerContainer.addMessageListener(
+                (message, pattern) -> this.local.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(EVICTIONS_CHANNEL)
+        );
+
+        CaffeineCacheMetrics.monitor(meterRegistry, this.local, "posts.local");
+        this.redisHits = meterRegistry.counter("cache.gets", "cache", "posts.redis", "result", "hit");
+        this.redisMisses = meterRegistry.counter("cache.gets", "cache", "posts.redis", "result", "miss");
+        meterRegistry.gauge("cache.hit.ratio", Collections.singletonList(Tag.of("cache", "posts.local")),
+                this.local, (cache) -> cache.stats().hitRate());
+        meterRegistry.gauge("cache.hit.ratio", Collections.singletonList(Tag.of("cache", "posts.redis")),
+                this, PostCache::redisHitRatio);
+    }
+
+    /**
+     * The post with the given slug, from the local tier, Redis or else the loader.
+     */
+    public Mono<Post> get(String slug, Function<String, Mono<Post>> loader) {
+        return Mono.defer(() -> {
+            Post cached = this.local.getIfPresent(slug);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            return this.redis.opsForValue().get(key(slug))
+                    .doOnNext((post) -> this.redisHits.increment())
+                    .onErrorResume((e) -> {
+                        log.warn("post cache lookup of {} failed: {}", slug, e.getMessage());
+                        return Mono.empty();
+                    })
+                    .doOnNext((post) -> this.local.put(slug, post))
+                    .switchIfEmpty(Mono.defer(() -> {
+                        this.redisMisses.increment();
+                        return this.generation(slug)
+                                .flatMap((generation) -> loader.apply(slug).flatMap((post) -> this.store(post, generation)));
+                    }));
+        });
+    }
+
+    /**
+     * Removes the post from Redis and from the local tier of every replica.
+     */
+    public Mono<Void> evict(String slug) {
+        return this.redisCommands
+                .execute(EVICT_SCRIPT, Arrays.asList(key(slug), generationKey(slug)),
+                        Arrays.asList(EVICTIONS_CHANNEL, slug, Long.toString(this.ttl.toMillis())))
+                .doOnSubscribe((s) -> this.local.invalidate(slug))
+                .doOnNext((receivers) -> log.debug("evicted post {} from cache, {} replicas notified", slug, receivers))
+                .onErrorResume((e) -> {
+                    log.warn("post cache eviction of {} failed: {}", slug, e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    // 0 until the post is evicted, never matched when Redis is not available
+    private Mono<String> generation(String slug) {
+        return this.redisCommands.opsForValue().get(generationKey(slug))
+                .defaultIfEmpty("0")
+                .onErrorResume((e) -> {
+                    log.warn("post cache generation lookup of {} failed: {}", slug, e.getMessage());
+                    return Mono.just("");
+                });
+    }
+
+    private Mono<Post> store(Post post, String generation) {
+        String slug = post.getSlug();
+        return Mono.fromCallable(() -> this.objectMapper.writeValueAsString(post))
+                .flatMapMany((json) -> this.redisCommands.execute(STORE_SCRIPT, Arrays.asList(key(slug), generationKey(slug)),
+                        Arrays.asList(generation, json, Long.toString(this.ttl.toMillis()))))
+                .next()
+                .map((stored) -> stored == 1L)
+                .onErrorResume((e) -> {
+                    log.warn("post cache update of {} failed: {}", slug, e.getMessage());
+                    return Mono.just(true);
+                })
+                .doOnNext((stored) -> {
+                    if (stored) {
+                        this.local.put(slug, post);
+                    } else {
+                        log.debug("post {} evicted while it was loaded, not cached", slug);
+                    }
+                })
+                .then(Mono.just(post));
+    }
+
+    private double redisHitRatio() {
+        double requests = this.redisHits.count() + this.redisMisses.count();
+        return requests == 0 ? 0 : this.redisHits.count() / requests;
+    }
+
+    private static String key(String slug) {
+        return KEY_PREFIX + slug;
+    }
+
+    private static String generationKey(String slug) {
+        return KEY_PREFIX + slug + ":generation";
+    }
+
+}
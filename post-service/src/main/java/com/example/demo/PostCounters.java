@@ -0,0 +1,180 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * The comment and favorite counters denormalized on {@link Post}, so listings and details show
+ * them without extra queries.
+ * <p>
+ * The counters are changed with {@code $inc} when comments are created or deleted, and for the
+ * events favorite-service pushes on the {@code favorites:events} list. The list is a work queue,
+ * every event is popped by exactly one post-service replica. A reconciliation job recounts the
+ * comments and favorites of all posts every {@code counters.reconcile-interval} and fixes the
+ * counters which drifted, e.g. for an event lost in a crash.
+ *
+ * @author hantsy
+ */
+@Component
+@Slf4j
+class PostCounters implements InitializingBean, DisposableBean {
+
+    static final String FAVORITE_EVENTS = "favorites:events";
+
+    private static final Duration POP_TIMEOUT = Duration.ofSeconds(5L);
+
+    private final ReactiveMongoTemplate template;
+    private final CommentRepository comments;
+    private final PostCache cache;
+    private final ReactiveRedisTemplate<String, String> redis;
+    private final ObjectMapper objectMapper;
+    private final Duration reconcileInterval;
+    private final Disposable.Composite jobs = Disposables.composite();
+
+    public PostCounters(ReactiveMongoTemplate template,
+            CommentRepository comments,
+            PostCache cache,
+            ReactiveRedisConnectionFactory connectionFactory,
+            ObjectMapper objectMapper,
+            @Value("${counters.reconcile-interval:1h}") String reconcileInterval) {
+        this.template = template;
+        this.comments = comments;
+        this.cache = cache;
+        this.redis = new ReactiveRedisTemplate<>(connectionFactory, RedisSerializationContext.string());
+        this.objectMapper = objectMapper;
+        this.reconcileInterval = DurationStyle.detectAndParse(reconcileInterval);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        this.jobs.add(this.favoriteEvents()
+                .concatMap((event) -> this.increment(event.getSlug(), "favoriteCount", event.getDelta()))
+                .doOnError((e) -> log.warn("favorite events consumer failed, restarting it: {}", e.getMessage()))
+                .retryWhen((errors) -> errors.delayElements(Duration.ofSeconds(1L)))
+                .subscribe());
+
+        this.jobs.add(Flux.interval(this.reconcileInterval, this.reconcileInterval)
+                // a run still in progress skips the next tick
+                .onBackpressureDrop()
+                .concatMap((tick) -> this.reconcile()
+                        .onErrorResume((e) -> {
+                            log.warn("counters reconciliation failed: {}", e.getMessage());
+                            return Mono.empty();
+                        }), 1)
+                .subscribe());
+    }
+
+    @Override
+    public void destroy() {
+        this.jobs.dispose();
+    }
+
+    public Mono<Void> commentsAdded(String slug, long count) {
+        return this.increment(slug, "commentCount", count);
+    }
+
+    public Mono<Void> commentsRemoved(String slug, long count) {
+        return this.increment(slug, "commentCount", -count);
+    }
+
+    private Mono<Void> increment(String slug, String counter, long delta) {
+        return this.template.updateFirst(query(where("slug").is(slug)), new Update().inc(counter, delta), Post.class)
+                .filter((result) -> result.getModifiedCount() > 0)
+                .flatMap((result) -> this.cache.evict(slug));
+    }
+
+    private Flux<FavoriteEvent> favoriteEvents() {
+        return Mono.defer(() -> this.redis.opsForList().rightPop(FAVORITE_EVENTS, POP_TIMEOUT))
+                .repeat()
+                .handle((message, sink) -> {
+                    try {
+                        sink.next(this.objectMapper.readValue(message, FavoriteEvent.class));
+                    } catch (IOException e) {
+                        log.warn("skipped malformed favorite event: {}", message);
+                    }
+                });
+    }
+
+    /**
+     * Recounts the comments and favorites of every post and fixes the counters that differ.
+     * The fix is a compare and set on the counters read before counting, a post changed meanwhile
+     * is left to the next run.
+     */
+    Mono<Long> reconcile() {
+        Query all = new Query().with(Sort.by("_id"));
+        all.fields().include("slug").include("commentCount").include("favoriteCount");
+        return this.template.find(all, Post.class)
+                .concatMap((post) -> Mono
+                        .zip(
+                                this.comments.countByPostSlug(post.getSlug()),
+                                this.redis.opsForZSet().size("posts:" + post.getSlug() + ":favorites")
+                        )
+                        .flatMap((counts) -> {
+                            if (counts.getT1() == post.getCommentCount() && counts.getT2() == post.getFavoriteCount()) {
+                                return Mono.empty();
+                            }
+                            log.info("reconciling counters of post {}: comments {} -> {}, favorites {} -> {}", post.getSlug(),
+                                    post.getCommentCount(), counts.getT1(), post.getFavoriteCount(), counts.getT2());
+                            return this.template
+                                    .updateFirst(
+                                            query(where("_id").is(post.getId()).andOperator(
+                                                    counter("commentCount", post.getCommentCount()),
+                                                    counter("favoriteCount", post.getFavoriteCount())
+                                            )),
+                                            Update.update("commentCount", counts.getT1()).set("favoriteCount", counts.getT2()),
+                                            Post.class
+                                    )
+                                    .filter((result) -> result.getModifiedCount() > 0)
+                                    .flatMap((result) -> this.cache.evict(post.getSlug()).then(Mono.just(post)));
+                        })
+                )
+                .count()
+                .doOnNext((fixed) -> log.debug("counters reconciliation fixed {} posts", fixed));
+    }
+
+    // posts stored before the counters existed have no counter fields, they are read as 0
+    private static Criteria counter(String field, long value) {
+        return value == 0 ? where(field).in(0L, null) : where(field).is(value);
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class FavoriteEvent {
+
+        private String slug;
+        // 1 for a favorite, -1 for an unfavorite
+        private long delta;
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuples;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Deletes what depends on a deleted post in the background, so deleting a post with a huge
+ * comment thread stays fast.
+ * <p>
+ * Deleting a post pushes a job on the {@code posts:deletions} Redis list, the comments of the post
+ * are then deleted by one replica in batches of {@code deletions.batch-size}. A job is moved to
+ * {@code posts:deletions:processing} while it runs and moved back on startup if a replica died
+ * meanwhile, deleting twice is harmless. Only comments created before the post was deleted are
+ * deleted, the slug may already be taken by a new post. The favorites are handed off to
+ * favorite-service on the {@code favorites:cleanup} list, with the time of the deletion for the
+ * same reason.
+ * <p>
+ * Published metrics: {@code posts.deletions} (timer of the jobs), {@code posts.deletions.comments}
+ * (deleted comments) and {@code posts.deletions.backlog} tagged with the queue, {@code comments}
+ * or {@code favorites}.
+ *
+ * @author hantsy
+ */
+@Component
+@Slf4j
+class PostDeletions implements InitializingBean, DisposableBean {
+
+    static final String QUEUE = "posts:deletions";
+    static final String PROCESSING = "posts:deletions:processing";
+    // consumed by favorite-service
+    static final String FAVORITES_CLEANUP = "favorites:cleanup";
+
+    private static final Duration POP_TIMEOUT = Duration.ofSeconds(5L);
+    private static final Duration BACKLOG_REFRESH = Duration.ofSeconds(10L);
+
+    private final ReactiveMongoTemplate template;
+    private final ReactiveRedisTemplate<String, String> redis;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final Timer deletions;
+    private final Counter deletedComments;
+    private final AtomicLong commentsBacklog = new AtomicLong();
+    private final AtomicLong favoritesBacklog = new AtomicLong();
+    private final Disposable.Composite jobs = Disposables.composite();
+
+    public PostDeletions(ReactiveMongoTemplate template,
+            ReactiveRedisConnectionFactory connectionFactory,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${deletions.batch-size:500}") int batchSize) {
+        this.template = template;
+        this.redis = new ReactiveRedisTemplate<>(connectionFactory, RedisSerializationContext.string());
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.deletions = meterRegistry.timer("posts.deletions");
+        this.deletedComments = meterRegistry.counter("posts.deletions.comments");
+        meterRegistry.gauge("posts.deletions.backlog", Tags.of("queue", "comments"), this.commentsBacklog);
+        meterRegistry.gauge("posts.deletions.backlog", Tags.of("queue", "favorites"), this.favoritesBacklog);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        this.jobs.add(this.recover()
+                .thenMany(Mono.defer(() -> this.redis.opsForList().rightPopAndLeftPush(QUEUE, PROCESSING, POP_TIMEOUT)).repeat())
+                .concatMap(this::run)
+                .doOnError((e) -> log.warn("post deletions worker failed, restarting it: {}", e.getMessage()))
+                .retryWhen((errors) -> errors.delayElements(Duration.ofSeconds(1L)))
+                .subscribe());
+
+        this.jobs.add(Flux.interval(Duration.ZERO, BACKLOG_REFRESH)
+                .onBackpressureDrop()
+                .concatMap((tick) -> this.refreshBacklog().onErrorResume((e) -> Mono.empty()), 1)
+                .subscribe());
+    }
+
+    @Override
+    public void destroy() {
+        this.jobs.dispose();
+    }
+
+    /**
+     * Schedules the deletion of the comments and favorites of a post which was just deleted.
+     */
+    public Mono<Void> schedule(String slug) {
+        return Mono
+                .fromCallable(() -> Tuples.of(
+                        this.objectMapper.writeValueAsString(new PostDeletion(slug, LocalDateTime.now())),
+                        this.objectMapper.writeValueAsString(new FavoritesCleanup(slug, System.currentTimeMillis()))
+                ))
+                .flatMap((jobs) -> this.redis.opsForList().leftPush(FAVORITES_CLEANUP, jobs.getT2())
+                        .doOnNext(this.favoritesBacklog::set)
+                        .then(this.redis.opsForList().leftPush(QUEUE, jobs.getT1()))
+                        .doOnNext(this.commentsBacklog::set))
+                .then();
+    }
+
+    // jobs left in progress by a replica which stopped
+    private Mono<Void> recover() {
+        return Mono.defer(() -> this.redis.opsForList().rightPopAndLeftPush(PROCESSING, QUEUE))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .repeat()
+                .takeWhile(Optional::isPresent)
+                .count()
+                .doOnNext((count) -> {
+                    if (count > 0) {
+                        log.info("requeued {} interrupted post deletions", count);
+                    }
+                })
+                .then();
+    }
+
+    private Mono<Long> run(String job) {
+        PostDeletion deletion;
+        try {
+            deletion = this.objectMapper.readValue(job, PostDeletion.class);
+        } catch (IOException e) {
+            log.warn("dropped malformed post deletion: {}", job);
+            return this.redis.opsForList().remove(PROCESSING, 1, job);
+        }
+
+        long start = System.nanoTime();
+        return this.deleteComments(deletion)
+                .doOnNext((count) -> log.info("deleted post {}: {} comments in {} ms", deletion.getSlug(), count,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)))
+                .doOnTerminate(() -> this.deletions.record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+                .then(this.redis.opsForList().remove(PROCESSING, 1, job))
+                .flatMap((removed) -> this.refreshBacklog().then(Mono.just(removed)));
+    }
+
+    // bounded batches on the post_slug_createdDate_id index until none is left
+    private Mono<Long> deleteComments(PostDeletion deletion) {
+        Query batch = query(where("post.slug").is(deletion.getSlug()).and("createdDate").lte(deletion.getDeletedAt()))
+                .limit(this.batchSize);
+        batch.fields().include("_id");
+        String collection = this.template.getCollectionName(Comment.class);
+
+        return Mono
+                .defer(() -> this.template.find(batch, Document.class, collection)
+                        .map((comment) -> comment.get("_id"))
+                        .collectList()
+                        .flatMap((ids) -> ids.isEmpty()
+                                ? Mono.just(0L)
+                                : this.template.remove(query(where("_id").in(ids)), collection).map((result) -> result.getDeletedCount())))
+                .repeat()
+                .takeWhile((deleted) -> deleted > 0)
+                .doOnNext(this.deletedComments::increment)
+                .reduce(0L, Long::sum);
+    }
+
+    private Mono<Void> refreshBacklog() {
+        return Mono
+                .zip(this.redis.opsForList().size(QUEUE), this.redis.opsForList().size(FAVORITES_CLEANUP))
+                .doOnNext((sizes) -> {
+                    this.commentsBacklog.set(sizes.getT1());
+                    this.favoritesBacklog.set(sizes.getT2());
+                })
+                .then();
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class PostDeletion {
+
+        private String slug;
+        // comments created later belong to a new post with the same slug
+        private LocalDateTime deletedAt;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class FavoritesCleanup {
+
+        private String slug;
+        // in milliseconds, the favorites are scored with the time they were made at by favorite-service,
+        // the clocks of both services are assumed to be synchronized
+        private long deletedAt;
+    }
+
+}
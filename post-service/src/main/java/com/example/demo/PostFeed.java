@@ -0,0 +1,245 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoServerException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.reactivestreams.client.ChangeStreamPublisher;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonInvalidOperationException;
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Live feed of post changes backed by a MongoDB change stream, the server has to run as a replica set.
+ * <p>
+ * All subscribers share one change stream cursor. If the cursor fails with a transient error, eg. a
+ * network error or an election, it is reopened after the last seen event, with a backoff doubling
+ * from 1 second up to {@code feed.retry.max-backoff}, at most {@code feed.retry.max-attempts} times
+ * in a row. Other errors, eg. no replica set or a resume token out of the oplog, end the feed of
+ * every subscriber. Every subscriber gets a bounded buffer, a subscriber which falls behind is
+ * either disconnected or loses the oldest events, see {@code feed.overflow}. Each event carries a
+ * resume token, a client reconnecting with the token of the last event it has seen gets a dedicated
+ * cursor starting right after it, so no events are lost. The token is checked by opening a cursor
+ * before the feed is returned, a token the server cannot resume from is a bad request.
+ *
+ * @author hantsy
+ */
+@Component
+@Slf4j
+class PostFeed {
+
+    // the errors a change stream is resumed after, as listed by the change streams spec
+    private static final Set<Integer> TRANSIENT_ERRORS = new HashSet<>(Arrays.asList(
+            6, 7, 43, 63, 89, 91, 133, 150, 189, 234, 262, 9001, 10107, 11600, 11602, 13388, 13435, 13436));
+    // the errors of a resume token the server cannot resume from, too old or not a token
+    private static final Set<Integer> INVALID_RESUME_TOKEN_ERRORS = new HashSet<>(Arrays.asList(
+            2, 9, 14, 280, 286, 40576, 40585, 40615, 40647));
+    private static final Duration FIRST_BACKOFF = Duration.ofSeconds(1L);
+
+    private final ReactiveMongoTemplate template;
+    private final String collection;
+    private final int bufferSize;
+    private final boolean dropOldest;
+    private final int maxAttempts;
+    private final Duration maxBackoff;
+
+    private final AtomicReference<BsonDocument> lastResumeToken = new AtomicReference<>();
+    // failed attempts since the last event
+    private final AtomicInteger failures = new AtomicInteger();
+    private final Flux<PostEvent> shared;
+
+    public PostFeed(ReactiveMongoTemplate template,
+            @Value("${feed.buffer-size:256}") int bufferSize,
+            @Value("${feed.overflow:disconnect}") String overflow,
+            @Value("${feed.retry.max-attempts:10}") int maxAttempts,
+            @Value("${feed.retry.max-backoff:30s}") String maxBackoff) {
+        this.template = template;
+        this.collection = template.getCollectionName(Post.class);
+        this.bufferSize = bufferSize;
+        this.dropOldest = "drop-oldest".equals(overflow);
+        this.maxAttempts = maxAttempts;
+        this.maxBackoff = DurationStyle.detectAndParse(maxBackoff);
+        this.shared = Flux
+                .defer(() -> this.watch(this.lastResumeToken.get()))
+                .doOnNext((change) -> {
+                    this.lastResumeToken.set(change.getResumeToken());
+                    this.failures.set(0);
+                })
+                .retryWhen((errors) -> errors.concatMap((e) -> {
+                    int attempt = this.failures.incrementAndGet();
+                    if (!isTransient(e) || attempt > this.maxAttempts) {
+                        log.error("post change stream failed, closing the feed: {}", e.getMessage());
+                        return Mono.error(e);
+                    }
+                    Duration backoff = backoff(attempt, this.maxBackoff);
+                    log.warn("post change stream failed, reopening it in {} ms: {}", backoff.toMillis(), e.getMessage());
+                    return Mono.delay(backoff);
+                }))
+                // once the last subscriber is gone, or the feed failed, the next one starts from now again
+                .doFinally((signal) -> {
+                    if (signal == SignalType.CANCEL || signal == SignalType.ON_ERROR) {
+                        this.lastResumeToken.set(null);
+                        this.failures.set(0);
+                    }
+                })
+                .map(this::toEvent)
+                .publish()
+                .refCount();
+    }
+
+    /**
+     * Post changes from now on, or right after the event with the given resume token. Fails with an
+     * {@link IllegalArgumentException} if the resume token is invalid or the server cannot resume
+     * from it.
+     */
+    public Mono<Flux<PostEvent>> changes(String resumeToken) {
+        if (resumeToken == null) {
+            return Mono.just(this.buffered(this.shared));
+        }
+        return Mono.fromCallable(() -> decode(resumeToken))
+                .flatMap((token) -> this.checkResumable(token)
+                        .onErrorMap(PostFeed::isInvalidResumeToken, (e) -> new IllegalArgumentException("cannot resume from token: " + resumeToken, e))
+                        .then(Mono.fromCallable(() -> this.buffered(this.watch(token).map(this::toEvent)))));
+    }
+
+    private Flux<PostEvent> buffered(Flux<PostEvent> events) {
+        return events.onBackpressureBuffer(
+                this.bufferSize,
+                (event) -> log.debug("post feed subscriber too slow, overflow at event {}", event.getId()),
+                this.dropOldest ? BufferOverflowStrategy.DROP_OLDEST : BufferOverflowStrategy.ERROR
+        );
+    }
+
+    // the server only checks the token when the cursor is opened, it is closed again right away
+    private Mono<Void> checkResumable(BsonDocument token) {
+        Document aggregate = new Document("aggregate", this.collection)
+                .append("pipeline", Collections.singletonList(new Document("$changeStream", new Document("resumeAfter", token))))
+                .append("cursor", new Document("batchSize", 0));
+        return this.template.executeCommand(aggregate)
+                .map((result) -> ((Document) result.get("cursor")).get("id", Number.class).longValue())
+                .filter((cursorId) -> cursorId != 0L)
+                .flatMap((cursorId) -> this.template.executeCommand(new Document("killCursors", this.collection)
+                        .append("cursors", Collections.singletonList(cursorId))))
+                .then();
+    }
+
+    private Flux<ChangeStreamDocument<Document>> watch(BsonDocument resumeAfter) {
+        ChangeStreamPublisher<Document> changes = this.template
+                .getCollection(this.collection)
+                .watch(Collections.singletonList(
+                        Aggregates.match(Filters.in("operationType", Arrays.asList("insert", "update", "replace", "delete")))
+                ))
+                .fullDocument(FullDocument.UPDATE_LOOKUP);
+        if (resumeAfter != null) {
+            changes = changes.resumeAfter(resumeAfter);
+        }
+        return Flux.from(changes);
+    }
+
+    private PostEvent toEvent(ChangeStreamDocument<Document> change) {
+        Post post = change.getFullDocument() == null ? null : this.template.getConverter().read(Post.class, change.getFullDocument());
+        return new PostEvent(
+                change.getOperationType().getValue(),
+                change.getDocumentKey().getObjectId("_id").getValue().toHexString(),
+                post,
+                encode(change.getResumeToken())
+        );
+    }
+
+    static boolean isTransient(Throwable e) {
+        Throwable cause = mongoCause(e);
+        if (cause instanceof MongoSocketException || cause instanceof MongoTimeoutException
+                || cause instanceof MongoNotPrimaryException || cause instanceof MongoNodeIsRecoveringException) {
+            return true;
+        }
+        return cause instanceof MongoServerException && TRANSIENT_ERRORS.contains(((MongoServerException) cause).getCode());
+    }
+
+    static boolean isInvalidResumeToken(Throwable e) {
+        Throwable cause = mongoCause(e);
+        return cause instanceof MongoServerException && INVALID_RESUME_TOKEN_ERRORS.contains(((MongoServerException) cause).getCode());
+    }
+
+    // the template translates the driver exceptions
+    private static Throwable mongoCause(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoException) {
+                return cause;
+            }
+        }
+        return e;
+    }
+
+    // doubling from FIRST_BACKOFF, at most max
+    static Duration backoff(int attempt, Duration max) {
+        long millis = FIRST_BACKOFF.toMillis() << Math.min(attempt - 1, 30);
+        return millis > max.toMillis() ? max : Duration.ofMillis(millis);
+    }
+
+    static String encode(BsonDocument resumeToken) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(resumeToken.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the resume token is not one encoded by {@link #encode}
+     */
+    static BsonDocument decode(String resumeToken) {
+        BsonDocument token;
+        try {
+            token = BsonDocument.parse(new String(Base64.getUrlDecoder().decode(resumeToken), StandardCharsets.UTF_8));
+        } catch (JsonParseException | BsonInvalidOperationException e) {
+            throw new IllegalArgumentException("invalid resume token: " + resumeToken, e);
+        }
+        if (!token.containsKey("_data")) {
+            throw new IllegalArgumentException("invalid resume token: " + resumeToken);
+        }
+        return token;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class PostEvent {
+
+        // insert, update, replace or delete
+        private String operation;
+        private String id;
+        // null for deleted posts
+        private Post post;
+        private String resumeToken;
+    }
+
+}
@@ -6,15 +6,29 @@
 package com.example.demo;
 
 import java.net.URI;
-import java.time.Duration;
 
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
-import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 import static org.springframework.web.reactive.function.server.ServerResponse.*;
 
 
@@ -22,57 +36,183 @@ import static org.springframework.web.reactive.function.server.ServerResponse.*;
  * @author hantsy
  */
 @Component
+@Slf4j
 class PostHandler {
 
+    private static final int MAX_SLUG_RETRIES = 3;
+
     private final PostRepository posts;
+    private final CursorPagination pagination;
+    private final PostFeed feed;
+    private final ReactiveMongoTemplate template;
+    private final PostCache cache;
+    private final ReactiveAuditor auditor;
+    private final PostDeletions deletions;
+    private final AuthorTimeline timeline;
 
-    public PostHandler(PostRepository posts) {
+    public PostHandler(PostRepository posts, CursorPagination pagination, PostFeed feed, ReactiveMongoTemplate template, PostCache cache,
+            ReactiveAuditor auditor, PostDeletions deletions, AuthorTimeline timeline) {
         this.posts = posts;
+        this.deletions = deletions;
+        this.timeline = timeline;
+        this.cache = cache;
+        this.auditor = auditor;
+        this.template = template;
+        this.pagination = pagination;
+        this.feed = feed;
     }
 
+    // ?view=summary lists the posts without their content
     public Mono<ServerResponse> all(ServerRequest req) {
-        return ok().body(this.posts.findAll(), Post.class);
+        if (isSummaryView(req)) {
+            return this.pagination.page(req, null, PostSummary.class, this.template.getCollectionName(Post.class), MediaType.APPLICATION_JSON_UTF8);
+        }
+        return this.pagination.page(req, null, Post.class, MediaType.APPLICATION_JSON_UTF8);
     }
 
+    // the posts of a user, newest first, see AuthorTimeline
+    public Mono<ServerResponse> byAuthor(ServerRequest req) {
+        return this.timeline.page(req);
+    }
+
+    // live changes, see PostFeed
     public Mono<ServerResponse> stream(ServerRequest req) {
-        return ok().body(Flux.interval(Duration.ofSeconds(30L)).flatMap(s -> this.posts.findAll()), Post.class);
+        return this.feed.changes(req.queryParam("resumeToken").orElse(null))
+                .flatMap((changes) -> ok().contentType(MediaType.APPLICATION_STREAM_JSON).body(changes, PostFeed.PostEvent.class))
+                .onErrorResume(IllegalArgumentException.class, (e) -> badRequest().syncBody(e.getMessage()));
+    }
+
+    /**
+     * Full-text search on the title and content of the posts, ranked by relevance. Pages are
+     * selected with the {@code page} and {@code size} params. Accepting
+     * {@code application/stream+json} streams the hits as they are read, without the link to
+     * the next page, a short page is the last one.
+     */
+    public Mono<ServerResponse> search(ServerRequest req) {
+        String q = req.queryParam("q").map(String::trim).orElse("");
+        if (q.isEmpty()) {
+            return badRequest().syncBody("missing search terms, q");
+        }
+        int page;
+        int size;
+        try {
+            page = req.queryParam("page").map(Integer::parseInt).map((p) -> Math.max(0, p)).orElse(0);
+            size = this.pagination.size(req);
+        } catch (NumberFormatException e) {
+            return badRequest().syncBody(e.getMessage());
+        }
+
+        boolean streaming = req.headers().accept().contains(MediaType.APPLICATION_STREAM_JSON);
+        Query query = TextQuery.queryText(TextCriteria.forDefaultLanguage().matching(q))
+                .sortByScore()
+                .skip((long) page * size)
+                // one more than requested tells whether there is a next page
+                .limit(streaming ? size : size + 1);
+        Projections.include(query, this.template, PostSearchHit.class);
+        Flux<PostSearchHit> hits = this.template.find(query, PostSearchHit.class, this.template.getCollectionName(Post.class));
+
+        if (streaming) {
+            return ok().contentType(MediaType.APPLICATION_STREAM_JSON).body(hits, PostSearchHit.class);
+        }
+        return hits.collectList()
+                .flatMap((items) -> {
+                    ServerResponse.BodyBuilder response = ok().contentType(MediaType.APPLICATION_JSON_UTF8);
+                    if (items.size() > size) {
+                        URI next = UriComponentsBuilder.fromUri(req.uri()).replaceQueryParam("page", page + 1).build(true).toUri();
+                        response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+                    }
+                    return response.body(Flux.fromIterable(items.subList(0, Math.min(size, items.size()))), PostSearchHit.class);
+                });
     }
 
     public Mono<ServerResponse> create(ServerRequest req) {
         return req
                 .bodyToMono(Post.class)
-                .flatMap((post) -> this.posts.save(post))
-                .flatMap((p) -> created(URI.create("/posts/" + p.getSlug())).build());
+                .map(Post::writable)
+                .flatMap(this.auditor::markCreated)
+                .flatMap((post) -> Mono
+                        .defer(() -> this.uniqueSlug(post.getTitle())
+                                .map((slug) -> {
+                                    post.setSlug(slug);
+                                    return post;
+                                })
+                                .flatMap((p) -> this.posts.save(p))
+                        )
+                        // the unique slug index rejects a slug taken concurrently, pick the next one
+                        .retry(MAX_SLUG_RETRIES, (e) -> e instanceof DuplicateKeyException)
+                )
+                .flatMap((p) -> this.timeline.evict(p.getAuthor()).then(created(URI.create("/posts/" + p.getSlug())).build()));
+    }
+
+    private static boolean isSummaryView(ServerRequest req) {
+        return req.queryParam("view").filter("summary"::equals).isPresent();
+    }
+
+    private Mono<String> uniqueSlug(String title) {
+        String slug = Utils.slugify(title);
+        return this.posts.findSlugsByRegex(Utils.slugPattern(slug))
+                .map(Post::getSlug)
+                .collectList()
+                .map((taken) -> Utils.uniqueSlug(slug, taken));
     }
 
     public Mono<ServerResponse> get(ServerRequest req) {
-        return this.posts
-                .findBySlug(req.pathVariable("slug"))
-                .flatMap((post) -> ok().body(BodyInserters.fromObject(post)))
+        if (isSummaryView(req)) {
+            Query query = Projections.include(query(where("slug").is(req.pathVariable("slug"))), this.template, PostSummary.class);
+            return this.template.findOne(query, PostSummary.class, this.template.getCollectionName(Post.class))
+                    .flatMap((post) -> ETags.ok(req, ETags.of(post.getVersion(), post.getCommentCount(), post.getFavoriteCount(), "summary"), post))
+                    .switchIfEmpty(notFound().build());
+        }
+        return this.cache
+                .get(req.pathVariable("slug"), this.posts::findBySlug)
+                .flatMap((post) -> ETags.ok(req, ETags.of(post.getVersion(), post.getCommentCount(), post.getFavoriteCount()), post))
                 .switchIfEmpty(notFound().build());
     }
 
+    // If-Match makes the update conditional on the version the client has seen
     public Mono<ServerResponse> update(ServerRequest req) {
-        return Mono
-                .zip(
-                        (data) -> {
-                            Post p = (Post) data[0];
-                            Post p2 = (Post) data[1];
-                            p.setTitle(p2.getTitle());
-                            p.setContent(p2.getContent());
-                            return p;
-                        },
-                        this.posts.findById(req.pathVariable("slug")),
-                        req.bodyToMono(Post.class)
-                )
-                .cast(Post.class)
-                .flatMap((post) -> this.posts.save(post))
-                .flatMap((post) -> noContent().build());
+        return this.posts
+                .findBySlug(req.pathVariable("slug"))
+                .flatMap((post) -> {
+                    if (ETags.isPreconditionFailed(req, ETags.of(post.getVersion()))) {
+                        return status(HttpStatus.PRECONDITION_FAILED).eTag(ETags.of(post.getVersion())).build();
+                    }
+                    return req.bodyToMono(Post.class)
+                            // only the edited fields are written, a full save would overwrite concurrent counter increments
+                            .flatMap((data) -> this.template
+                                    .findAndModify(
+                                            query(where("_id").is(post.getId()).and("version").is(post.getVersion())),
+                                            Update.update("title", data.getTitle()).set("content", data.getContent()).inc("version", 1),
+                                            FindAndModifyOptions.options().returnNew(true),
+                                            Post.class
+                                    )
+                                    .switchIfEmpty(Mono.defer(() -> Mono.error(
+                                            new OptimisticLockingFailureException("post " + post.getSlug() + " was modified concurrently")
+                                    )))
+                            )
+                            .flatMap((saved) -> this.cache.evict(saved.getSlug())
+                                    .then(this.timeline.evict(saved.getAuthor()))
+                                    .then(noContent().eTag(ETags.of(saved.getVersion())).build()))
+                            // modified concurrently since it was read
+                            .onErrorResume(OptimisticLockingFailureException.class, (e) -> status(
+                                    ETags.hasPrecondition(req) ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT
+                            ).build());
+                })
+                .switchIfEmpty(notFound().build());
     }
 
+    // the comments and favorites of the post are deleted in the background, see PostDeletions
     public Mono<ServerResponse> delete(ServerRequest req) {
         return this.posts.findBySlug(req.pathVariable("slug"))
-                .flatMap((post) -> noContent().build())
+                .flatMap((post) -> this.posts.delete(post)
+                        .then(this.cache.evict(post.getSlug()))
+                        .then(this.timeline.evict(post.getAuthor()))
+                        .then(this.deletions.schedule(post.getSlug())
+                                .onErrorResume((e) -> {
+                                    log.error("scheduling the cleanup of deleted post {} failed: {}", post.getSlug(), e.getMessage());
+                                    return Mono.empty();
+                                }))
+                        .then(noContent().build()))
                 .switchIfEmpty(notFound().build());
     }
 
@@ -5,7 +5,9 @@
  */
 package com.example.demo;
 
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -14,4 +16,8 @@ import reactor.core.publisher.Mono;
  */
 interface PostRepository extends ReactiveMongoRepository<Post, String> {
     Mono<Post> findBySlug(String slug);
+
+    // anchored prefix regex, answered from the slug index
+    @Query(value = "{ 'slug': { $regex: ?0 } }", fields = "{ 'slug': 1 }")
+    Flux<Post> findSlugsByRegex(String regex);
 }
@@ -0,0 +1,39 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import java.time.LocalDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.TextScore;
+
+/**
+ * A post matching a full-text search, without the content, with the relevance score of the match.
+ *
+ * @author hantsy
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+class PostSearchHit {
+
+    @Id
+    private String id;
+    private String title;
+    private String slug;
+    private LocalDateTime createdDate;
+    private Username author;
+    private long commentCount;
+    private long favoriteCount;
+
+    @TextScore
+    private Float score;
+
+}
@@ -5,17 +5,15 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.context.annotation.Bean;
-import org.springframework.data.domain.AuditorAware;
 import org.springframework.data.mongodb.config.EnableMongoAuditing;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
 import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
 import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
-import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
-import org.springframework.security.core.context.ReactiveSecurityContextHolder;
-import org.springframework.security.core.context.SecurityContext;
-import org.springframework.security.core.userdetails.UserDetails;
 
 import org.springframework.security.web.server.SecurityWebFilterChain;
 import org.springframework.web.reactive.function.server.RouterFunction;
@@ -28,7 +26,10 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 import org.springframework.web.server.session.HeaderWebSessionIdResolver;
 import org.springframework.web.server.session.WebSessionIdResolver;
 
+import java.util.Collections;
+
 @SpringBootApplication
+// dates only, the author is set reactively by ReactiveAuditor
 @EnableMongoAuditing
 @EnableDiscoveryClient
 @Slf4j
@@ -51,7 +52,9 @@ public class PostServiceApplication {
                 .csrf().disable()
                 .authorizeExchange()
                 .pathMatchers(HttpMethod.GET, "/posts/**").permitAll()
+                .pathMatchers(HttpMethod.GET, "/users/*/posts").permitAll()
                 .pathMatchers(HttpMethod.DELETE, "/posts/**").hasRole("ADMIN")
+                .pathMatchers("/admin/**").hasRole("ADMIN")
                 .anyExchange().authenticated()
                 .and()
                 .build();
@@ -61,41 +64,51 @@ public class PostServiceApplication {
     public RouterFunction<ServerResponse> routes(
             PostRepository posts,
             PostHandler postController,
-            CommentHandler commentHandler) {
+            CommentHandler commentHandler,
+            BulkHandler bulkHandler,
+            BackupHandler backupHandler) {
         RouterFunction<ServerResponse> commentsRoutes = route(GET("/"), commentHandler::all)
+                .andRoute(GET("/count"), commentHandler::count)
+                .andRoute(GET("/thread"), commentHandler::thread)
                 .andRoute(POST("/"), commentHandler::create)
+                .andRoute(POST("/bulk").and(contentType(MediaType.APPLICATION_STREAM_JSON)), bulkHandler::createComments)
                 .andRoute(GET("/{commentid}"), commentHandler::get)
+                .andRoute(GET("/{commentid}/replies"), commentHandler::replies)
                 .andRoute(PUT("/{commentid}"), commentHandler::update)
                 .andRoute(DELETE("/{commentid}"), commentHandler::delete);
 
         RouterFunction<ServerResponse> postsRoutes =
                 route(accept(MediaType.APPLICATION_JSON_UTF8).and(GET("/")), postController::all)
                 .andRoute(accept(MediaType.APPLICATION_STREAM_JSON).and(GET("/")), postController::stream)
+                .andRoute(GET("/search"), postController::search)
                 .andRoute(POST("/"), postController::create)
+                .andRoute(POST("/bulk").and(contentType(MediaType.APPLICATION_STREAM_JSON)), bulkHandler::createPosts)
                 .andRoute(GET("/{slug}"), postController::get)
                 .andRoute(PUT("/{slug}"), postController::update)
                 .andRoute(DELETE("/{slug}"), postController::delete)
                 .andNest(path("/{slug}/comments"), commentsRoutes);
 
-        return nest(path("/posts"), postsRoutes);
-    }
+        RouterFunction<ServerResponse> adminRoutes = route(GET("/export"), backupHandler::export)
+                .andRoute(POST("/export"), backupHandler::exportToFile)
+                .andRoute(POST("/import"), backupHandler::importAll);
 
-    @Bean
-    public AuditorAware<Username> auditorAware() {
-        return () -> ReactiveSecurityContextHolder.getContext()
-                .map(SecurityContext::getAuthentication)
-                .map(auth -> {
+        RouterFunction<ServerResponse> usersRoutes = route(GET("/{username}/posts"), postController::byAuthor);
 
-                            if (auth.isAuthenticated() && !(auth instanceof AnonymousAuthenticationToken)) {
-                                UserDetails userDetails = (UserDetails) auth.getPrincipal();
+        return nest(path("/posts"), postsRoutes)
+                .andNest(path("/users"), usersRoutes)
+                .andNest(path("/admin"), adminRoutes);
+    }
 
-                                return new Username(userDetails.getUsername());
-                            }
+    @Bean
+    RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
 
-                            return null;
-                        }
-                )
-                .blockOptional();
+    @Bean
+    MongoCustomConversions mongoCustomConversions() {
+        return new MongoCustomConversions(MongoConverters.reading());
     }
 
     @Bean
@@ -105,7 +118,10 @@ public class PostServiceApplication {
             @Override
             public void onBeforeConvert(BeforeConvertEvent<Post> event) {
                 super.onBeforeConvert(event);
-                event.getSource().setSlug(Utils.slugify(event.getSource().getTitle()));
+                // slugs are kept once assigned, new posts get a unique one from PostHandler.create
+                if (event.getSource().getSlug() == null) {
+                    event.getSource().setSlug(Utils.uniqueSlug(Utils.slugify(event.getSource().getTitle()), Collections.emptyList()));
+                }
 
                 log.debug("after set slug:: onBeforeConvert({}, {})", event.getSource(), event.getDocument());
             }
@@ -0,0 +1,37 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import java.time.LocalDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+
+/**
+ * Lightweight view of a {@link Post} for listings, read straight from the post collection
+ * without the content.
+ *
+ * @author hantsy
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+class PostSummary implements CursorPagination.Keyed {
+
+    @Id
+    private String id;
+    private String title;
+    private String slug;
+    private LocalDateTime createdDate;
+    private Username author;
+    private Long version;
+    private long commentCount;
+    private long favoriteCount;
+
+}
@@ -0,0 +1,35 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import org.springframework.data.mapping.PropertyHandler;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ * Restricts queries to the fields of a projection type, so MongoDB only returns what the type can hold.
+ *
+ * @author hantsy
+ */
+final class Projections {
+
+    private Projections() {
+    }
+
+    static Query include(Query query, ReactiveMongoOperations operations, Class<?> type) {
+        MongoPersistentEntity<?> entity = operations.getConverter().getMappingContext().getRequiredPersistentEntity(type);
+        entity.doWithProperties((PropertyHandler<MongoPersistentProperty>) (property) -> {
+            // the text score is projected by the text query itself
+            if (!property.isTextScoreProperty()) {
+                query.fields().include(property.getFieldName());
+            }
+        });
+        return query;
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import java.util.Collections;
+import org.springframework.data.auditing.AuditableBeanWrapperFactory;
+import org.springframework.data.auditing.MappingAuditableBeanWrapperFactory;
+import org.springframework.data.mapping.context.PersistentEntities;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Fills the {@code @CreatedBy} property of new documents from the security context of the
+ * subscriber, without blocking.
+ * <p>
+ * The auditing of this Spring Data version only knows a synchronous {@code AuditorAware}, which
+ * cannot reach the reactive security context without blocking. The dates are still set by
+ * {@code @EnableMongoAuditing}, the author is set here on the way to the repository.
+ *
+ * @author hantsy
+ */
+@Component
+class ReactiveAuditor {
+
+    private final AuditableBeanWrapperFactory wrappers;
+
+    public ReactiveAuditor(MongoMappingContext mappingContext) {
+        this.wrappers = new MappingAuditableBeanWrapperFactory(new PersistentEntities(Collections.singletonList(mappingContext)));
+    }
+
+    /**
+     * The authenticated user of the subscriber, empty for anonymous users.
+     */
+    public Mono<Username> currentUser() {
+        return ReactiveSecurityContextHolder.getContext()
+                .map(SecurityContext::getAuthentication)
+                .filter((auth) -> auth.isAuthenticated() && !(auth instanceof AnonymousAuthenticationToken))
+                .map((auth) -> new Username(auth.getName()));
+    }
+
+    /**
+     * Sets the creator of a new document to the current user, if any.
+     */
+    public <T> Mono<T> markCreated(T entity) {
+        return this.currentUser()
+                .map((user) -> {
+                    this.wrappers.getBeanWrapperFor(entity).ifPresent((wrapper) -> wrapper.setCreatedBy(user));
+                    return entity;
+                })
+                .defaultIfEmpty(entity);
+    }
+
+}
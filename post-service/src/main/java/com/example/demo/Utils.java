@@ -5,22 +5,209 @@
  */
 package com.example.demo;
 
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
 /**
  *
  * @author hantsy
  */
 public final class Utils {
 
+    public static final int SLUG_MAX_LENGTH = 100;
+
+    // the slug of a title without any letter or digit, numbered by uniqueSlug like the others
+    public static final String FALLBACK_SLUG = "post";
+
+    // the segments of the /posts routes matched before /posts/{slug}, never given to a post
+    public static final Set<String> RESERVED_SLUGS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("search", "bulk")));
+
+    // ASCII character classes, the lower case letter or digit, 0 for a separator
+    private static final char[] ASCII = new char[128];
+
+    // transliterations of the Latin-1 Supplement and Latin Extended-A/B blocks, null for a separator
+    private static final int LATIN_END = 0x250;
+    private static final String[] LATIN = new String[LATIN_END];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            ASCII[c] = c;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            ASCII[c] = c;
+            ASCII[Character.toUpperCase(c)] = c;
+        }
+
+        Map<Character, String> special = new HashMap<>();
+        special.put('\u00df', "ss");
+        special.put('\u00e6', "ae");
+        special.put('\u00c6', "ae");
+        special.put('\u0153', "oe");
+        special.put('\u0152', "oe");
+        special.put('\u00f8', "o");
+        special.put('\u00d8', "o");
+        special.put('\u0142', "l");
+        special.put('\u0141', "l");
+        special.put('\u0111', "d");
+        special.put('\u0110', "d");
+        special.put('\u00f0', "d");
+        special.put('\u00d0', "d");
+        special.put('\u00fe', "th");
+        special.put('\u00de', "th");
+        special.put('\u0131', "i");
+        for (char c = 128; c < LATIN_END; c++) {
+            if (special.containsKey(c)) {
+                LATIN[c] = special.get(c);
+                continue;
+            }
+            StringBuilder ascii = new StringBuilder();
+            for (char d : Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFKD).toCharArray()) {
+                if (d < 128 && ASCII[d] != 0) {
+                    ascii.append(ASCII[d]);
+                }
+            }
+            if (ascii.length() > 0) {
+                LATIN[c] = ascii.toString();
+            } else if (Character.isLetterOrDigit(c)) {
+                LATIN[c] = String.valueOf(Character.toLowerCase(c));
+            }
+        }
+    }
+
     private Utils() {
     }
 
     public static String slugify(String source) {
-        String result = source.toLowerCase();
-        result = result.replaceAll("\r\n", "");
-        result = result.replaceAll("\n", "");
-        result = result.replaceAll("\r", "");
-        result = result.replaceAll("[\\s]+", "-");
-        return result;
+        return slugify(source, SLUG_MAX_LENGTH);
+    }
+
+    /**
+     * Builds a slug in a single pass: letters and digits are lower cased, accented Latin letters are
+     * transliterated to ASCII, combining marks are dropped, letters of other scripts are kept, and
+     * every run of other characters becomes one {@code -}. The slug never starts or ends with a
+     * {@code -} and is at most {@code maxLength} characters long, a word which does not fit is
+     * dropped unless it is the only one. A title without any letter or digit gets
+     * {@link #FALLBACK_SLUG}.
+     */
+    public static String slugify(String source, int maxLength) {
+        StringBuilder slug = new StringBuilder(Math.min(source.length(), maxLength));
+        boolean separator = false;
+
+        for (int i = 0; i < source.length(); ) {
+            int c = source.codePointAt(i);
+            i += Character.charCount(c);
+
+            if (c < 128) {
+                char a = ASCII[c];
+                if (a == 0) {
+                    separator = true;
+                } else if (!append(slug, a, separator, maxLength)) {
+                    truncate(slug, separator);
+                    break;
+                } else {
+                    separator = false;
+                }
+                continue;
+            }
+
+            String t;
+            if (c < LATIN_END) {
+                t = LATIN[c];
+            } else if (isMark(c)) {
+                continue;
+            } else if (Character.isLetterOrDigit(c)) {
+                t = new String(Character.toChars(Character.toLowerCase(c)));
+            } else {
+                t = null;
+            }
+
+            if (t == null) {
+                separator = true;
+            } else if (!append(slug, t, separator, maxLength)) {
+                truncate(slug, separator);
+                break;
+            } else {
+                separator = false;
+            }
+        }
+        // nothing to keep in the title, eg. only punctuation or emoji
+        return slug.length() == 0 ? FALLBACK_SLUG : slug.toString();
+    }
+
+    // drops the partial last word if the slug was cut in the middle of it
+    private static void truncate(StringBuilder slug, boolean separator) {
+        int last = slug.lastIndexOf("-");
+        if (!separator && last > 0) {
+            slug.setLength(last);
+        }
+    }
+
+    private static boolean append(StringBuilder slug, char c, boolean separator, int maxLength) {
+        boolean dash = separator && slug.length() > 0;
+        if (slug.length() + (dash ? 2 : 1) > maxLength) {
+            return false;
+        }
+        if (dash) {
+            slug.append('-');
+        }
+        slug.append(c);
+        return true;
+    }
+
+    private static boolean append(StringBuilder slug, String s, boolean separator, int maxLength) {
+        boolean dash = separator && slug.length() > 0;
+        if (slug.length() + (dash ? 1 : 0) + s.length() > maxLength) {
+            return false;
+        }
+        if (dash) {
+            slug.append('-');
+        }
+        slug.append(s);
+        return true;
+    }
+
+    private static boolean isMark(int c) {
+        int type = Character.getType(c);
+        return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK || type == Character.ENCLOSING_MARK;
+    }
+
+    /**
+     * The regex of {@code slug} and of the slugs {@link #uniqueSlug} derives from it, eg.
+     * {@code hello-world-2}, anchored so that MongoDB reads it on the slug index.
+     */
+    public static String slugPattern(String slug) {
+        return "^" + Pattern.quote(slug) + "(-\\d+)?$";
+    }
+
+    /**
+     * Returns {@code slug} if it is not taken yet, otherwise the slug with the next free numeric
+     * suffix, eg. {@code hello-world-2} when {@code hello-world} and {@code hello-world-1} exist.
+     * The {@link #RESERVED_SLUGS} are always taken, eg. {@code search-1}.
+     */
+    public static String uniqueSlug(String slug, Collection<String> taken) {
+        if (!taken.contains(slug) && !RESERVED_SLUGS.contains(slug)) {
+            return slug;
+        }
+
+        String prefix = slug + "-";
+        long max = 0;
+        for (String t : taken) {
+            if (t.length() > prefix.length() && t.startsWith(prefix)) {
+                try {
+                    max = Math.max(max, Long.parseLong(t.substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    // not a numeric suffix, eg. hello-world-again
+                }
+            }
+        }
+        return prefix + (max + 1);
     }
 
 }
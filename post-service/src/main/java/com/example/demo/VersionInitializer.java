@@ -0,0 +1,55 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.example.demo;
+
+import java.time.Duration;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Sets the initial version of posts and comments stored before they were versioned, a document
+ * without a version would be taken as new and inserted again on save. Runs once, see
+ * {@link Migrations}, the replicas of the former version, which write posts and comments without
+ * a version, are to be stopped before the first one of this version starts.
+ *
+ * @author hantsy
+ */
+@Component
+@Slf4j
+class VersionInitializer implements InitializingBean {
+
+    static final String MIGRATION = "versions";
+
+    private final ReactiveMongoTemplate template;
+    private final Migrations migrations;
+
+    public VersionInitializer(ReactiveMongoTemplate template, Migrations migrations) {
+        this.template = template;
+        this.migrations = migrations;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        this.migrations
+                .once(MIGRATION, Flux
+                        .merge(
+                                this.template.updateMulti(query(where("version").exists(false)), Update.update("version", 0L), Post.class),
+                                this.template.updateMulti(query(where("version").exists(false)), Update.update("version", 0L), Comment.class)
+                        )
+                        .filter((result) -> result.getModifiedCount() > 0)
+                        .doOnNext((result) -> log.info("initialized the version of {} documents", result.getModifiedCount()))
+                        .then())
+                .block(Duration.ofSeconds(30L));
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.example.demo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.bson.codecs.DocumentCodec;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+/**
+ * Throughput of the {@link BackupHandler} export and import pipelines without the database, relaxed
+ * extended JSON plus {@link GzipNdjson} at deflate {@code level}, over {@code documents} generated
+ * posts of about 1 KB. The {@code megabytes} and {@code compressedMegabytes} counters are the rates
+ * of NDJSON and gzip in MB/s. Run the main method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class BackupBenchmark {
+
+    static final JsonWriterSettings JSON = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+    static final DocumentCodec CODEC = new DocumentCodec();
+    static final int TEMPLATES = 1000;
+    static final int VOCABULARY = 5000;
+    static final int LINES_PER_CHUNK = 1000;
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    @Param({"2000000"})
+    int documents;
+
+    @Param({"1", "6"})
+    int level;
+
+    DefaultDataBufferFactory factory = new DefaultDataBufferFactory();
+    List<Document> templates = new ArrayList<>();
+    List<byte[]> compressed = new ArrayList<>();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Rates {
+
+        public double megabytes;
+        public double compressedMegabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.megabytes = 0;
+            this.compressedMegabytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        String[] words = new String[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; i++) {
+            char[] word = new char[3 + random.nextInt(8)];
+            for (int j = 0; j < word.length; j++) {
+                word[j] = (char) ('a' + random.nextInt(26));
+            }
+            words[i] = new String(word);
+        }
+        for (int i = 0; i < TEMPLATES; i++) {
+            StringBuilder content = new StringBuilder();
+            while (content.length() < 900) {
+                content.append(words[random.nextInt(VOCABULARY)]).append(' ');
+            }
+            this.templates.add(new Document("_id", new ObjectId())
+                    .append("title", "Post title " + i)
+                    .append("slug", "post-title-" + i)
+                    .append("content", content.toString())
+                    .append("createdDate", new Date())
+                    .append("author", new Document("username", "user" + random.nextInt(100)))
+                    .append("version", 0L)
+                    .append("commentCount", (long) random.nextInt(100))
+                    .append("favoriteCount", (long) random.nextInt(100)));
+        }
+
+        // the import reads what the export wrote, in file sized reads
+        byte[] chunk = new byte[READ_BUFFER_SIZE];
+        int[] length = {0};
+        this.encode().doOnNext((buffer) -> {
+            while (buffer.readableByteCount() > 0) {
+                int count = Math.min(buffer.readableByteCount(), chunk.length - length[0]);
+                buffer.read(chunk, length[0], count);
+                length[0] += count;
+                if (length[0] == chunk.length) {
+                    this.compressed.add(chunk.clone());
+                    length[0] = 0;
+                }
+            }
+            DataBufferUtils.release(buffer);
+        }).blockLast();
+        byte[] last = new byte[length[0]];
+        System.arraycopy(chunk, 0, last, 0, length[0]);
+        this.compressed.add(last);
+    }
+
+    @Benchmark
+    public long export(Rates rates) {
+        // ascii documents, as many bytes as chars
+        long[] bytes = {0};
+        Flux<String> lines = this.lines().doOnNext((line) -> bytes[0] += line.length() + 1);
+        long buffers = GzipNdjson.encode(lines, this.factory, this.level, LINES_PER_CHUNK)
+                .doOnNext((buffer) -> {
+                    rates.compressedMegabytes += buffer.readableByteCount() / 1e6;
+                    DataBufferUtils.release(buffer);
+                })
+                .count()
+                .block();
+        rates.megabytes += bytes[0] / 1e6;
+        return buffers;
+    }
+
+    @Benchmark
+    public long importAll(Rates rates) {
+        return GzipNdjson
+                .decode(Flux.fromIterable(this.compressed)
+                        .doOnNext((bytes) -> rates.compressedMegabytes += bytes.length / 1e6)
+                        .map(this.factory::wrap))
+                .doOnNext((line) -> rates.megabytes += (line.length() + 1) / 1e6)
+                .map((line) -> Document.parse(line).get("document", Document.class))
+                .count()
+                .block();
+    }
+
+    private Flux<DataBuffer> encode() {
+        return GzipNdjson.encode(this.lines(), this.factory, this.level, LINES_PER_CHUNK);
+    }
+
+    private Flux<String> lines() {
+        return Flux.range(0, this.documents)
+                .map((i) -> new Document("collection", "post")
+                        .append("document", this.templates.get(i % TEMPLATES))
+                        .toJson(JSON, CODEC));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BackupBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
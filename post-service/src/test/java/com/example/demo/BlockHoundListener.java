@@ -0,0 +1,36 @@
+package com.example.demo;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.runner.Description;
+import org.junit.runner.notification.RunListener;
+import reactor.blockhound.BlockHound;
+
+/**
+ * Installs BlockHound before the test run, see the surefire configuration. A blocking call in an
+ * event loop thread then fails with a {@code BlockingOperationError}.
+ * <p>
+ * The Reactor integration of BlockHound covers the parallel and single schedulers, the event
+ * loops of the Reactor Netty server and of the Lettuce client are matched by name.
+ */
+public class BlockHoundListener extends RunListener {
+
+    private static final AtomicBoolean INSTALLED = new AtomicBoolean();
+
+    @Override
+    public void testRunStarted(Description description) {
+        install();
+    }
+
+    static void install() {
+        if (INSTALLED.compareAndSet(false, true)) {
+            BlockHound.install((builder) -> builder.nonBlockingThreadPredicate((current) -> current.or(BlockHoundListener::isEventLoop)));
+        }
+    }
+
+    static boolean isEventLoop(Thread thread) {
+        String name = thread.getName();
+        return name.startsWith("reactor-http-")
+                || (name.startsWith("lettuce-") && name.contains("EventLoop"));
+    }
+
+}
@@ -0,0 +1,107 @@
+package com.example.demo;
+
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import reactor.core.publisher.Flux;
+
+/**
+ * Writing a thousand posts one by one, like the importer did against {@code POST /posts}, against
+ * the {@code insertMany} batches of {@link BulkHandler}. Needs a MongoDB server, see
+ * {@code -Dmongodb.uri}, the documents go to the {@code bulk_benchmark} database. Run the main method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkInsertBenchmark {
+
+    static final int POSTS = 1000;
+
+    @Param({"100", "500"})
+    int batchSize;
+
+    @Param({"true", "false"})
+    boolean ordered;
+
+    MongoClient client;
+    MongoCollection<Document> collection;
+    List<List<Document>> batches;
+
+    @Setup
+    public void setup() {
+        this.client = MongoClients.create(System.getProperty("mongodb.uri", "mongodb://localhost:27017"));
+        this.collection = this.client.getDatabase("bulk_benchmark").getCollection("post");
+    }
+
+    @Setup(Level.Invocation)
+    public void documents() {
+        Flux.from(this.collection.drop()).blockLast();
+        this.batches = new ArrayList<>();
+        List<Document> batch = new ArrayList<>();
+        for (int i = 0; i < POSTS; i++) {
+            if (batch.size() == this.batchSize) {
+                this.batches.add(batch);
+                batch = new ArrayList<>();
+            }
+            batch.add(new Document("title", "Post title " + i)
+                    .append("slug", "post-title-" + i)
+                    .append("content", "content of post " + i)
+                    .append("createdDate", new Date())
+                    .append("version", 0L));
+        }
+        this.batches.add(batch);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Flux.from(this.client.getDatabase("bulk_benchmark").drop()).blockLast();
+        this.client.close();
+    }
+
+    @Benchmark
+    public Long oneByOne() {
+        return Flux.fromIterable(this.batches)
+                .flatMapIterable((batch) -> batch)
+                .concatMap((document) -> this.collection.insertOne(document))
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public Long insertMany() {
+        return Flux.fromIterable(this.batches)
+                .concatMap((batch) -> this.collection.insertMany(batch, new InsertManyOptions().ordered(this.ordered)))
+                .count()
+                .block();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BulkInsertBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
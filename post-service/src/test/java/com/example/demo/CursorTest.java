@@ -0,0 +1,21 @@
+package com.example.demo;
+
+import java.time.LocalDateTime;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CursorTest {
+
+    @Test
+    public void testEncodeAndDecode() {
+        Cursor cursor = new Cursor(LocalDateTime.of(2018, 8, 1, 10, 20, 30, 123000000), "5b61a5f2c1d4b3a2f0e1d2c3");
+        assertEquals(cursor, Cursor.decode(cursor.encode()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalidToken() {
+        Cursor.decode("invalid");
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.example.demo;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import static org.junit.Assert.assertEquals;
+
+public class GzipNdjsonTest {
+
+    private final DefaultDataBufferFactory factory = new DefaultDataBufferFactory();
+
+    @Test
+    public void testEncodeIsReadableByGzipInputStream() throws IOException {
+        List<String> lines = lines(1000);
+        byte[] gzip = join(GzipNdjson.encode(Flux.fromIterable(lines), this.factory, 6, 64));
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(gzip)), StandardCharsets.UTF_8))) {
+            assertEquals(lines, reader.lines().collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testDecodeInputSplitAtEveryByte() {
+        List<String> lines = lines(100);
+        byte[] gzip = join(GzipNdjson.encode(Flux.fromIterable(lines), this.factory, 1, 7));
+
+        StepVerifier.create(GzipNdjson.decode(split(gzip, 1)))
+                .expectNextSequence(lines)
+                .verifyComplete();
+    }
+
+    @Test
+    public void testDecodeConcatenatedMembersWithoutFinalNewline() throws IOException {
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        gzip.write(gzip("{\"a\": 1}\n{\"b\": \"é\"}\n"));
+        gzip.write(gzip("{\"c\": 3}"));
+
+        StepVerifier.create(GzipNdjson.decode(split(gzip.toByteArray(), 5)))
+                .expectNext("{\"a\": 1}", "{\"b\": \"é\"}", "{\"c\": 3}")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testDecodeTruncatedInput() {
+        byte[] gzip = join(GzipNdjson.encode(Flux.fromIterable(lines(10)), this.factory, 1, 10));
+
+        StepVerifier.create(GzipNdjson.decode(split(Arrays.copyOf(gzip, gzip.length - 4), 16)))
+                .expectNextCount(10)
+                .verifyError(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testDecodeInvalidInput() {
+        StepVerifier.create(GzipNdjson.decode(split("{\"a\": 1}\n{\"b\": 2}\n".getBytes(StandardCharsets.UTF_8), 4)))
+                .verifyError(IllegalArgumentException.class);
+    }
+
+    private static List<String> lines(int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add("{\"collection\": \"post\", \"document\": {\"title\": \"Post " + i + " ü\", \"content\": \"content of post " + i + "\"}}");
+        }
+        return lines;
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] join(Flux<DataBuffer> buffers) {
+        DataBuffer joined = DataBufferUtils.join(buffers).block();
+        byte[] bytes = new byte[joined.readableByteCount()];
+        joined.read(bytes);
+        return bytes;
+    }
+
+    private Flux<DataBuffer> split(byte[] bytes, int size) {
+        List<DataBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i += size) {
+            buffers.add(this.factory.wrap(Arrays.copyOfRange(bytes, i, Math.min(bytes.length, i + size))));
+        }
+        return Flux.fromIterable(buffers);
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.example.demo;
+
+import org.bson.Document;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the query plans of the hot queries against the local MongoDB.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+public class IndexTests {
+
+    @Autowired
+    ReactiveMongoTemplate template;
+
+    @Test
+    public void findPostBySlugUsesSlugIndex() {
+        String plan = explain("post", new Document("slug", "post-one"));
+        assertTrue(plan, usesIndex(plan, "slug"));
+    }
+
+    @Test
+    public void findCommentsByPostSlugUsesPostSlugIndex() {
+        String plan = explain("comment", new Document("post.slug", "post-one"));
+        assertTrue(plan, usesIndex(plan, "post_slug_createdDate_id"));
+    }
+
+    @Test
+    public void countCommentsByPostSlugUsesPostSlugIndex() {
+        Document command = new Document("explain", new Document("count", "comment").append("query", new Document("post.slug", "post-one")))
+                .append("verbosity", "queryPlanner");
+        String plan = ((Document) this.template.executeCommand(command).block().get("queryPlanner")).get("winningPlan", Document.class).toJson();
+        assertTrue(plan, plan.contains("COUNT_SCAN"));
+    }
+
+    @Test
+    public void searchPostsUsesTextIndex() {
+        String plan = explain("post", new Document("$text", new Document("$search", "post")));
+        assertTrue(plan, plan.contains("TEXT") && plan.matches("(?s).*\"indexName\"\\s*:\\s*\"title_content_text\".*"));
+    }
+
+    private boolean usesIndex(String plan, String index) {
+        return plan.contains("IXSCAN") && plan.matches("(?s).*\"indexName\"\\s*:\\s*\"" + index + "\".*");
+    }
+
+    private String explain(String collection, Document filter) {
+        Document command = new Document("explain", new Document("find", collection).append("filter", filter))
+                .append("verbosity", "queryPlanner");
+        Document result = this.template.executeCommand(command).block();
+        return ((Document) result.get("queryPlanner")).get("winningPlan", Document.class).toJson();
+    }
+
+}
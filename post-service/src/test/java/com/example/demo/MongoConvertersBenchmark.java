@@ -0,0 +1,125 @@
+package com.example.demo;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Mapping of a post and a comment to and from documents by the {@link MappingMongoConverter}
+ * used by the templates, reflective or with {@link MongoConverters}, which only read, the writes
+ * are reflective with both. Run the main method, add {@code -prof gc} for allocations per entity.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MongoConvertersBenchmark {
+
+    @Param({"reflective", "converters"})
+    String mapping;
+
+    @Param({"1024"})
+    int contentLength;
+
+    MappingMongoConverter converter;
+    Post post;
+    Document postDocument;
+    Comment comment;
+    Document commentDocument;
+
+    @Setup
+    public void setup() {
+        MongoMappingContext context = new MongoMappingContext();
+        MongoCustomConversions conversions = new MongoCustomConversions("converters".equals(this.mapping)
+                ? MongoConverters.reading()
+                : Collections.emptyList());
+        context.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        context.afterPropertiesSet();
+        this.converter = new MappingMongoConverter(mock(DbRefResolver.class), context);
+        this.converter.setCustomConversions(conversions);
+        this.converter.afterPropertiesSet();
+
+        StringBuilder content = new StringBuilder();
+        while (content.length() < this.contentLength) {
+            content.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit. ");
+        }
+
+        this.post = Post.builder()
+                .id(new ObjectId().toHexString())
+                .title("Post title")
+                .slug("post-title")
+                .content(content.toString())
+                .createdDate(LocalDateTime.now())
+                .author(new Username("user"))
+                .version(1L)
+                .commentCount(10)
+                .favoriteCount(20)
+                .build();
+        this.postDocument = this.writePost();
+
+        String id = new ObjectId().toHexString();
+        this.comment = Comment.builder()
+                .id(id)
+                .post(new Slug("post-title"))
+                .content("Lorem ipsum dolor sit amet")
+                .path(id + "/")
+                .createdDate(LocalDateTime.now())
+                .author(new Username("user"))
+                .version(0L)
+                .build();
+        this.commentDocument = this.writeComment();
+    }
+
+    @Benchmark
+    public Document writePost() {
+        Document document = new Document();
+        this.converter.write(this.post, document);
+        return document;
+    }
+
+    @Benchmark
+    public Post readPost() {
+        return this.converter.read(Post.class, this.postDocument);
+    }
+
+    @Benchmark
+    public Document writeComment() {
+        Document document = new Document();
+        this.converter.write(this.comment, document);
+        return document;
+    }
+
+    @Benchmark
+    public Comment readComment() {
+        return this.converter.read(Comment.class, this.commentDocument);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MongoConvertersBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.example.demo;
+
+import java.time.LocalDateTime;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+public class MongoConvertersTest {
+
+    private final MappingMongoConverter reflective = reflective();
+
+    @Test
+    public void testPostIsReadLikeSpringData() {
+        Post post = Post.builder()
+                .id(new ObjectId().toHexString())
+                .title("title")
+                .content("content")
+                .slug("title")
+                .createdDate(LocalDateTime.of(2018, 8, 1, 10, 20, 30, 123000000))
+                .author(new Username("user"))
+                .version(2L)
+                .commentCount(3)
+                .favoriteCount(4)
+                .build();
+
+        Document document = this.write(post);
+        assertEquals(post, MongoConverters.PostReadConverter.INSTANCE.convert(document));
+        assertEquals(this.reflective.read(Post.class, document), MongoConverters.PostReadConverter.INSTANCE.convert(document));
+    }
+
+    @Test
+    public void testNewPostIsReadLikeSpringData() {
+        Post post = Post.builder().title("title").content("content").build();
+
+        Document document = this.write(post);
+        assertEquals(post, MongoConverters.PostReadConverter.INSTANCE.convert(document));
+        assertEquals(this.reflective.read(Post.class, document), MongoConverters.PostReadConverter.INSTANCE.convert(document));
+    }
+
+    @Test
+    public void testCommentIsReadLikeSpringData() {
+        String parentId = new ObjectId().toHexString();
+        String id = new ObjectId().toHexString();
+        Comment comment = Comment.builder()
+                .id(id)
+                .post(new Slug("title"))
+                .content("content")
+                .parentId(parentId)
+                .path(parentId + "/" + id + "/")
+                .depth(1)
+                .createdDate(LocalDateTime.of(2018, 8, 1, 10, 20, 30, 123000000))
+                .author(new Username("user"))
+                .version(0L)
+                .build();
+
+        Document document = this.write(comment);
+        assertEquals(comment, MongoConverters.CommentReadConverter.INSTANCE.convert(document));
+        assertEquals(this.reflective.read(Comment.class, document), MongoConverters.CommentReadConverter.INSTANCE.convert(document));
+    }
+
+    @Test
+    public void testReadDocumentsWithIntegersAndStringIds() {
+        Document document = new Document("_id", "imported")
+                .append("title", "title")
+                .append("commentCount", 3)
+                .append("version", 1)
+                .append("author", new Document());
+
+        Post post = MongoConverters.PostReadConverter.INSTANCE.convert(document);
+        assertEquals("imported", post.getId());
+        assertEquals(3L, post.getCommentCount());
+        assertEquals(Long.valueOf(1L), post.getVersion());
+        assertNull(post.getAuthor().getUsername());
+        assertNull(post.getCreatedDate());
+    }
+
+    private Document write(Object entity) {
+        Document document = new Document();
+        this.reflective.write(entity, document);
+        document.remove("_class");
+        return document;
+    }
+
+    static MappingMongoConverter reflective() {
+        MongoMappingContext context = new MongoMappingContext();
+        context.afterPropertiesSet();
+        MappingMongoConverter converter = new MappingMongoConverter(mock(DbRefResolver.class), context);
+        converter.afterPropertiesSet();
+        return converter;
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.example.demo;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.reactivestreams.client.ChangeStreamPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PostFeedTest {
+
+    static final BsonDocument TOKEN = new BsonDocument("_data", new BsonBinary(new byte[]{1, 2, 3}));
+
+    ReactiveMongoTemplate template;
+    ChangeStreamPublisher<Document> changes;
+    AtomicInteger watched = new AtomicInteger();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        this.template = mock(ReactiveMongoTemplate.class);
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        this.changes = mock(ChangeStreamPublisher.class);
+        when(this.template.getCollectionName(Post.class)).thenReturn("post");
+        when(this.template.getCollection("post")).thenReturn(collection);
+        when(collection.watch(anyList())).thenReturn(this.changes);
+        when(this.changes.fullDocument(any(FullDocument.class))).thenReturn(this.changes);
+        when(this.changes.resumeAfter(any(BsonDocument.class))).thenReturn(this.changes);
+    }
+
+    @Test
+    public void testEncodeAndDecode() {
+        assertEquals(TOKEN, PostFeed.decode(PostFeed.encode(TOKEN)));
+    }
+
+    @Test
+    public void testDecodeInvalidTokens() {
+        for (String token : new String[]{"not base64!", encode("not json"), encode("{\"other\": 1}")}) {
+            try {
+                PostFeed.decode(token);
+                throw new AssertionError("decoded " + token);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testErrorClassification() {
+        assertTrue(PostFeed.isTransient(new MongoSocketReadException("reset", new ServerAddress())));
+        // not master, and wrapped by the template
+        assertTrue(PostFeed.isTransient(serverError(10107)));
+        assertTrue(PostFeed.isTransient(new UncategorizedMongoDbException("failed", serverError(91))));
+        // no replica set, resume token out of the oplog
+        assertFalse(PostFeed.isTransient(serverError(40573)));
+        assertFalse(PostFeed.isTransient(serverError(286)));
+        assertFalse(PostFeed.isTransient(new IllegalStateException()));
+
+        assertTrue(PostFeed.isInvalidResumeToken(new UncategorizedMongoDbException("failed", serverError(286))));
+        assertFalse(PostFeed.isInvalidResumeToken(serverError(40573)));
+    }
+
+    @Test
+    public void testBackoffIsBounded() {
+        assertEquals(Duration.ofSeconds(1L), PostFeed.backoff(1, Duration.ofSeconds(30L)));
+        assertEquals(Duration.ofSeconds(8L), PostFeed.backoff(4, Duration.ofSeconds(30L)));
+        assertEquals(Duration.ofSeconds(30L), PostFeed.backoff(6, Duration.ofSeconds(30L)));
+        assertEquals(Duration.ofSeconds(30L), PostFeed.backoff(100, Duration.ofSeconds(30L)));
+    }
+
+    @Test
+    public void testTransientErrorsAreRetriedAndPermanentOnesSurfaced() {
+        this.fail(new MongoSocketReadException("reset", new ServerAddress()),
+                serverError(10107),
+                serverError(40573));
+
+        StepVerifier.create(this.feed(10).changes(null).flatMapMany((events) -> events))
+                .expectErrorMatches((e) -> e instanceof MongoCommandException && ((MongoCommandException) e).getCode() == 40573)
+                .verify(Duration.ofSeconds(5L));
+        assertEquals(3, this.watched.get());
+    }
+
+    @Test
+    public void testRetriesAreBounded() {
+        MongoSocketReadException reset = new MongoSocketReadException("reset", new ServerAddress());
+        this.fail(reset, reset, reset, reset, reset);
+
+        StepVerifier.create(this.feed(2).changes(null).flatMapMany((events) -> events))
+                .expectError(MongoSocketReadException.class)
+                .verify(Duration.ofSeconds(5L));
+        assertEquals(3, this.watched.get());
+    }
+
+    @Test
+    public void testResumeTokenTheServerRejectsIsABadRequest() {
+        when(this.template.executeCommand(any(Document.class)))
+                .thenReturn(Mono.error(new UncategorizedMongoDbException("failed", serverError(286))));
+        PostHandler handler = new PostHandler(null, null, this.feed(10), this.template, null, null, null, null);
+
+        assertEquals(HttpStatus.BAD_REQUEST, handler.stream(MockServerRequest.builder()
+                .queryParam("resumeToken", PostFeed.encode(TOKEN))
+                .build()).block().statusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, handler.stream(MockServerRequest.builder()
+                .queryParam("resumeToken", "invalid")
+                .build()).block().statusCode());
+        assertEquals(0, this.watched.get());
+    }
+
+    @Test
+    public void testResumeTokenTheServerAcceptsOpensACursor() {
+        when(this.template.executeCommand(any(Document.class)))
+                .thenReturn(Mono.just(new Document("cursor", new Document("id", 0L))));
+
+        StepVerifier.create(this.feed(10).changes(PostFeed.encode(TOKEN)))
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    private PostFeed feed(int maxAttempts) {
+        return new PostFeed(this.template, 16, "disconnect", maxAttempts, "1ms");
+    }
+
+    // every cursor opened fails with the next error
+    @SuppressWarnings("unchecked")
+    private void fail(Throwable... errors) {
+        Iterator<Throwable> next = Arrays.asList(errors).iterator();
+        doAnswer((invocation) -> {
+            this.watched.incrementAndGet();
+            Flux.<Object>error(next.next()).subscribe((Subscriber<Object>) invocation.getArgument(0));
+            return null;
+        }).when(this.changes).subscribe(any());
+    }
+
+    private static MongoCommandException serverError(int code) {
+        return new MongoCommandException(BsonDocument.parse("{ok: 0, code: " + code + ", errmsg: 'failed'}"), new ServerAddress());
+    }
+
+    private static String encode(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes());
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Serialization cost of a page of posts with and without the content, the payload sizes are
+ * printed on setup. Run the main method, add {@code -prof gc} for allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostSerializationBenchmark {
+
+    @Param({"20", "100"})
+    int pageSize;
+
+    @Param({"4096"})
+    int contentLength;
+
+    ObjectMapper objectMapper;
+    List<Post> posts;
+    List<PostSummary> summaries;
+
+    @Setup
+    public void setup() throws Exception {
+        this.objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+        StringBuilder content = new StringBuilder();
+        while (content.length() < this.contentLength) {
+            content.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit. ");
+        }
+
+        this.posts = new ArrayList<>();
+        this.summaries = new ArrayList<>();
+        for (int i = 0; i < this.pageSize; i++) {
+            Post post = Post.builder()
+                    .id("5b61a5f2c1d4b3a2f0e1d2" + String.format("%02d", i))
+                    .title("Post title " + i)
+                    .slug("post-title-" + i)
+                    .content(content.toString())
+                    .createdDate(LocalDateTime.now())
+                    .author(new Username("user"))
+                    .build();
+            this.posts.add(post);
+            this.summaries.add(new PostSummary(post.getId(), post.getTitle(), post.getSlug(), post.getCreatedDate(), post.getAuthor(),
+                    post.getVersion(), post.getCommentCount(), post.getFavoriteCount()));
+        }
+
+        System.out.printf("%npayload of %d posts: full %d bytes, summary %d bytes%n",
+                this.pageSize, this.full().length, this.summary().length);
+    }
+
+    @Benchmark
+    public byte[] full() throws Exception {
+        return this.objectMapper.writeValueAsBytes(this.posts);
+    }
+
+    @Benchmark
+    public byte[] summary() throws Exception {
+        return this.objectMapper.writeValueAsBytes(this.summaries);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PostSerializationBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -6,6 +6,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
@@ -19,8 +20,13 @@ import org.springframework.web.reactive.function.server.RouterFunction;
 
 import java.net.URI;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.springframework.security.test.web.reactive.server.SecurityMockServerConfigurers.springSecurity;
@@ -35,6 +41,8 @@ public class PostServiceApplicationTests {
     RouterFunction<?> routerFunction;
     @Autowired
     WebFilterChainProxy springSecurityFilterChain;
+    @Autowired
+    CommentRepository comments;
 
     WebTestClient client;
 
@@ -58,6 +66,85 @@ public class PostServiceApplicationTests {
                 .expectStatus().isEqualTo(HttpStatus.OK);
     }
 
+    @Test
+    public void getPostsPageWillReturnNextLink() {
+        client
+                .get()
+                .uri("/posts?size=1")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.OK)
+                .expectHeader().valueMatches("Link", "<.*cursor=.*>; rel=\"next\"")
+                .expectBody().jsonPath("$.length()").isEqualTo(1);
+    }
+
+    @Test
+    public void getPostSummariesWillNotIncludeContent() {
+        client
+                .get()
+                .uri("/posts?view=summary")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.OK)
+                .expectBody()
+                .jsonPath("$[0].title").exists()
+                .jsonPath("$[0].content").doesNotExist();
+    }
+
+    @Test
+    public void getPostsWithInvalidCursorWillReturn400() {
+        client
+                .get()
+                .uri("/posts?cursor=invalid")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    public void countCommentsOfNonExistedPostWillReturnZero() {
+        client
+                .get()
+                .uri("/posts/xxx/comments/count")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.OK)
+                .expectBody().jsonPath("$.count").isEqualTo(0);
+    }
+
+    @Test
+    public void searchPostsWithoutTermsWillReturn400() {
+        client
+                .get()
+                .uri("/posts/search")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    public void searchPostsWillRankTitleMatchesFirst() {
+        String word = "zq" + new Random().nextInt(Integer.MAX_VALUE);
+        client
+                .post()
+                .uri("/posts")
+                .body(BodyInserters.fromObject(Post.builder().title("Post about something").content("mentions " + word).build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED);
+        client
+                .post()
+                .uri("/posts")
+                .body(BodyInserters.fromObject(Post.builder().title("Post about " + word).content("content").build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED);
+
+        client
+                .get()
+                .uri("/posts/search?q=" + word)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].title").isEqualTo("Post about " + word)
+                .jsonPath("$[0].content").doesNotExist();
+    }
+
     @Test
     public void getNonExistedPostsWithoutAuthShouldRetrun404() {
         client
@@ -121,5 +208,493 @@ public class PostServiceApplicationTests {
                 .expectStatus().isEqualTo(HttpStatus.NO_CONTENT);
     }
 
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    public void managedFieldsOfACreatedPostAreNotTakenFromTheBody() {
+        int randomInt = new Random().nextInt(Integer.MAX_VALUE);
+        String title = "Forged post " + randomInt;
+        String body = "{\"title\":\"" + title + "\",\"content\":\"content\",\"id\":\"forged\",\"slug\":\"forged\","
+                + "\"version\":5,\"commentCount\":1000,\"favoriteCount\":1000,\"createdDate\":\"2000-01-01T00:00:00\","
+                + "\"author\":{\"username\":\"someone-else\"}}";
+
+        URI location = client
+                .post()
+                .uri("/posts")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(BodyInserters.fromObject(body))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED)
+                .returnResult(Void.class)
+                .getResponseHeaders().getLocation();
+        assertEquals(URI.create("/posts/forged-post-" + randomInt), location);
+
+        Post created = client
+                .get()
+                .uri(location)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Post.class)
+                .returnResult().getResponseBody();
+        assertNotEquals("forged", created.getId());
+        assertEquals(Long.valueOf(0L), created.getVersion());
+        assertEquals(0L, created.getCommentCount());
+        assertEquals(0L, created.getFavoriteCount());
+        assertTrue(created.getCreatedDate().getYear() > 2000);
+        assertEquals("user", created.getAuthor().getUsername());
+
+        client
+                .post()
+                .uri("/posts/bulk")
+                .contentType(MediaType.APPLICATION_STREAM_JSON)
+                .body(BodyInserters.fromObject(body + "\n"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(BulkHandler.BulkResult.class)
+                .consumeWith((result) -> assertEquals("forged-post-" + randomInt + "-1", result.getResponseBody().get(0).getSlug()));
+
+        client
+                .get()
+                .uri("/posts/forged-post-" + randomInt + "-1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.commentCount").isEqualTo(0)
+                .jsonPath("$.favoriteCount").isEqualTo(0)
+                .jsonPath("$.author.username").isEqualTo("user");
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    public void conditionalGetAndUpdateOfPost() {
+        int randomInt = new Random().nextInt(Integer.MAX_VALUE);
+        String title = "Post test " + randomInt;
+        URI location = client
+                .post()
+                .uri("/posts")
+                .body(BodyInserters.fromObject(Post.builder().title(title).content("content of " + title).build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED)
+                .returnResult(Void.class)
+                .getResponseHeaders().getLocation();
+        assertNotNull(location);
+
+        String etag = client
+                .get()
+                .uri(location)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Void.class)
+                .getResponseHeaders().getETag();
+        assertNotNull(etag);
+
+        client
+                .get()
+                .uri(location)
+                .ifNoneMatch(etag)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.NOT_MODIFIED)
+                .expectBody().isEmpty();
+
+        client
+                .put()
+                .uri(location)
+                .header(HttpHeaders.IF_MATCH, "\"outdated\"")
+                .body(BodyInserters.fromObject(Post.builder().title(title).content("updated content").build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+        String updated = client
+                .put()
+                .uri(location)
+                .header(HttpHeaders.IF_MATCH, etag)
+                .body(BodyInserters.fromObject(Post.builder().title(title).content("updated content").build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.NO_CONTENT)
+                .returnResult(Void.class)
+                .getResponseHeaders().getETag();
+        assertNotEquals(etag, updated);
+
+        client
+                .get()
+                .uri(location)
+                .ifNoneMatch(etag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.content").isEqualTo("updated content");
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    public void bulkCreatePostsWillStreamResults() {
+        int randomInt = new Random().nextInt(Integer.MAX_VALUE);
+        String title = "Bulk post " + randomInt;
+        String body = "{\"title\":\"" + title + "\",\"content\":\"one\"}\n"
+                + "{\"title\":\"" + title + "\",\"content\":\"two\"}\n";
+
+        client
+                .post()
+                .uri("/posts/bulk")
+                .contentType(MediaType.APPLICATION_STREAM_JSON)
+                .body(BodyInserters.fromObject(body))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(BulkHandler.BulkResult.class)
+                .consumeWith((result) -> {
+                    List<BulkHandler.BulkResult> results = result.getResponseBody();
+                    assertEquals(2, results.size());
+                    assertEquals("created", results.get(0).getStatus());
+                    assertEquals("bulk-post-" + randomInt, results.get(0).getSlug());
+                    assertEquals("bulk-post-" + randomInt + "-1", results.get(1).getSlug());
+                });
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    public void exportedPostsCanBeImportedAgain() {
+        byte[] export = client
+                .get()
+                .uri("/admin/export")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(BackupHandler.APPLICATION_GZIP)
+                .expectBody(byte[].class)
+                .returnResult()
+                .getResponseBody();
+        assertNotNull(export);
+
+        // everything exists already
+        client
+                .post()
+                .uri("/admin/import")
+                .contentType(BackupHandler.APPLICATION_GZIP)
+                .body(BodyInserters.fromObject(export))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.posts").isEqualTo(0)
+                .jsonPath("$.comments").isEqualTo(0);
+    }
+
+    @Test
+    @WithMockUser
+    public void exportWithoutAdminRoleWillReturn403() {
+        client
+                .get()
+                .uri("/admin/export")
+                .exchange()
+                .expectStatus().isForbidden();
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    public void repliesAreListedInThreadOrder() {
+        int randomInt = new Random().nextInt(Integer.MAX_VALUE);
+        String title = "Post test " + randomInt;
+        URI location = client
+                .post()
+                .uri("/posts")
+                .body(BodyInserters.fromObject(Post.builder().title(title).content("content of " + title).build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED)
+                .returnResult(Void.class)
+                .getResponseHeaders().getLocation();
+        assertNotNull(location);
+
+        String first = comment(location, "first", null);
+        String reply = comment(location, "reply to first", first);
+        String second = comment(location, "second", null);
+        comment(location, "reply to reply", reply);
+
+        client
+                .get()
+                .uri(location + "/comments/thread")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[*].content").isEqualTo(Arrays.asList("first", "reply to first", "reply to reply", "second"))
+                .jsonPath("$[2].depth").isEqualTo(2);
+
+        client
+                .get()
+                .uri(location + "/comments/thread?depth=1&size=1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueMatches(HttpHeaders.LINK, ".*after=.*rel=\"next\"")
+                .expectBody()
+                .jsonPath("$[*].id").isEqualTo(Collections.singletonList(first));
+
+        client
+                .get()
+                .uri(location + "/comments/" + first + "/replies?depth=1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[*].id").isEqualTo(Collections.singletonList(reply));
+
+        client
+                .post()
+                .uri(location + "/comments")
+                .body(BodyInserters.fromObject(Comment.builder().content("reply to nothing").parentId(second + "0").build()))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    public void deletedCommentIsGoneWithItsReplies() {
+        int randomInt = new Random().nextInt(Integer.MAX_VALUE);
+        String title = "Post test " + randomInt;
+        URI location = client
+                .post()
+                .uri("/posts")
+                .body(BodyInserters.fromObject(Post.builder().title(title).content("content of " + title).build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED)
+                .returnResult(Void.class)
+                .getResponseHeaders().getLocation();
+        assertNotNull(location);
+
+        String first = comment(location, "first", null);
+        String reply = comment(location, "reply to first", first);
+        comment(location, "reply to reply", reply);
+        comment(location, "second", null);
+
+        client
+                .delete()
+                .uri(location + "/comments/" + first)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.NO_CONTENT);
+
+        client
+                .get()
+                .uri(location + "/comments/thread")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[*].content").isEqualTo(Collections.singletonList("second"));
+
+        client
+                .get()
+                .uri(location + "/comments/" + reply)
+                .exchange()
+                .expectStatus().isNotFound();
+
+        client
+                .get()
+                .uri(location)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.commentCount").isEqualTo(1);
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    public void managedFieldsOfACreatedCommentAreNotTakenFromTheBody() {
+        int randomInt = new Random().nextInt(Integer.MAX_VALUE);
+        String title = "Post test " + randomInt;
+        URI location = client
+                .post()
+                .uri("/posts")
+                .body(BodyInserters.fromObject(Post.builder().title(title).content("content of " + title).build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED)
+                .returnResult(Void.class)
+                .getResponseHeaders().getLocation();
+        assertNotNull(location);
+
+        URI comment = client
+                .post()
+                .uri(location + "/comments")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(BodyInserters.fromObject("{\"content\":\"forged\",\"version\":5,\"createdDate\":\"2999-01-01T00:00:00\","
+                        + "\"path\":\"forged/\",\"depth\":7,\"author\":{\"username\":\"someone-else\"}}"))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED)
+                .returnResult(Void.class)
+                .getResponseHeaders().getLocation();
+        assertNotNull(comment);
+
+        Comment created = client
+                .get()
+                .uri(comment)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Comment.class)
+                .returnResult().getResponseBody();
+        assertEquals(Long.valueOf(0L), created.getVersion());
+        assertNotNull(created.getCreatedDate());
+        assertTrue(created.getCreatedDate().getYear() < 2999);
+        assertEquals(created.getId() + "/", created.getPath());
+        assertEquals(0, created.getDepth());
+        assertEquals("user", created.getAuthor().getUsername());
+    }
+
+    private String comment(URI post, String content, String parentId) {
+        URI location = client
+                .post()
+                .uri(post + "/comments")
+                .body(BodyInserters.fromObject(Comment.builder().content(content).parentId(parentId).build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED)
+                .returnResult(Void.class)
+                .getResponseHeaders().getLocation();
+        assertNotNull(location);
+        return location.getPath().substring(location.getPath().lastIndexOf('/') + 1);
+    }
+
+    @Test
+    @WithMockUser(username = "timeline-author", roles = "ADMIN")
+    public void postsOfAnAuthorAreListedNewestFirstWithoutContent() {
+        int randomInt = new Random().nextInt(Integer.MAX_VALUE);
+        // cached before the posts are created, creating them drops the cached page
+        client
+                .get()
+                .uri("/users/timeline-author/posts?size=1")
+                .exchange()
+                .expectStatus().isOk();
+
+        for (String title : Arrays.asList("Older post " + randomInt, "Newer post " + randomInt)) {
+            client
+                    .post()
+                    .uri("/posts")
+                    .body(BodyInserters.fromObject(Post.builder().title(title).content("content of " + title).build()))
+                    .exchange()
+                    .expectStatus().isEqualTo(HttpStatus.CREATED);
+        }
+
+        client
+                .get()
+                .uri("/users/timeline-author/posts?size=1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueMatches(HttpHeaders.LINK, ".*cursor=.*rel=\"next\"")
+                .expectBody()
+                .jsonPath("$[0].title").isEqualTo("Newer post " + randomInt)
+                .jsonPath("$[0].author.username").isEqualTo("timeline-author")
+                .jsonPath("$[0].content").doesNotExist();
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    public void commentCountIsReturnedWithThePost() {
+        int randomInt = new Random().nextInt(Integer.MAX_VALUE);
+        String title = "Post test " + randomInt;
+        URI location = client
+                .post()
+                .uri("/posts")
+                .body(BodyInserters.fromObject(Post.builder().title(title).content("content of " + title).build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED)
+                .returnResult(Void.class)
+                .getResponseHeaders().getLocation();
+        assertNotNull(location);
+
+        client
+                .post()
+                .uri(location + "/comments")
+                .body(BodyInserters.fromObject(Comment.builder().content("comment of " + title).build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED);
+
+        client
+                .get()
+                .uri(location)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.commentCount").isEqualTo(1)
+                .jsonPath("$.favoriteCount").isEqualTo(0);
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    public void commentedPostIsNotReportedNotModified() {
+        int randomInt = new Random().nextInt(Integer.MAX_VALUE);
+        String title = "Post test " + randomInt;
+        URI location = client
+                .post()
+                .uri("/posts")
+                .body(BodyInserters.fromObject(Post.builder().title(title).content("content of " + title).build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED)
+                .returnResult(Void.class)
+                .getResponseHeaders().getLocation();
+        assertNotNull(location);
+
+        String etag = client
+                .get()
+                .uri(location)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Void.class)
+                .getResponseHeaders().getETag();
+        assertNotNull(etag);
+
+        client
+                .post()
+                .uri(location + "/comments")
+                .body(BodyInserters.fromObject(Comment.builder().content("comment of " + title).build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED);
+
+        client
+                .get()
+                .uri(location)
+                .ifNoneMatch(etag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.commentCount").isEqualTo(1);
+
+        // the comment did not change the version, the edit is not rejected
+        client
+                .put()
+                .uri(location)
+                .header(HttpHeaders.IF_MATCH, etag)
+                .body(BodyInserters.fromObject(Post.builder().title(title).content("updated content").build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.NO_CONTENT);
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    public void deletedPostIsGoneAndItsCommentsAreDeletedInTheBackground() {
+        int randomInt = new Random().nextInt(Integer.MAX_VALUE);
+        String title = "Post test " + randomInt;
+        URI location = client
+                .post()
+                .uri("/posts")
+                .body(BodyInserters.fromObject(Post.builder().title(title).content("content of " + title).build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED)
+                .returnResult(Void.class)
+                .getResponseHeaders().getLocation();
+        assertNotNull(location);
+        String slug = location.getPath().substring(location.getPath().lastIndexOf('/') + 1);
+
+        client
+                .post()
+                .uri(location + "/comments")
+                .body(BodyInserters.fromObject(Comment.builder().content("comment of " + title).build()))
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CREATED);
+
+        client
+                .delete()
+                .uri(location)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.NO_CONTENT);
+
+        client
+                .get()
+                .uri(location)
+                .exchange()
+                .expectStatus().isNotFound();
+
+        Long remaining = comments.countByPostSlug(slug)
+                .filter((count) -> count == 0)
+                .repeatWhenEmpty(20, (repeats) -> repeats.delayElements(Duration.ofMillis(500)))
+                .block(Duration.ofSeconds(15));
+        assertEquals(Long.valueOf(0), remaining);
+    }
 
 }
@@ -0,0 +1,76 @@
+package com.example.demo;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.test.context.junit4.SpringRunner;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Creates posts and comments on an event loop thread with BlockHound installed, the author has to
+ * be taken from the subscriber context without blocking.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+public class ReactiveAuditingTests {
+
+    @Autowired
+    PostHandler postHandler;
+    @Autowired
+    CommentHandler commentHandler;
+    @Autowired
+    PostRepository posts;
+    @Autowired
+    CommentRepository comments;
+
+    @BeforeClass
+    public static void installBlockHound() {
+        BlockHoundListener.install();
+    }
+
+    @Test
+    public void createPostAndCommentSetsAuthor() {
+        String title = "Audited post " + new Random().nextInt(Integer.MAX_VALUE);
+        MockServerRequest createPost = MockServerRequest.builder()
+                .uri(URI.create("/posts"))
+                .body(Mono.just(Post.builder().title(title).content("content of " + title).build()));
+
+        URI location = onEventLoop(this.postHandler.create(createPost))
+                .block(Duration.ofSeconds(10L))
+                .headers().getLocation();
+        String slug = location.getPath().substring("/posts/".length());
+        assertEquals("auditor", this.posts.findBySlug(slug).block(Duration.ofSeconds(10L)).getAuthor().getUsername());
+
+        MockServerRequest createComment = MockServerRequest.builder()
+                .uri(URI.create(location + "/comments"))
+                .pathVariable("slug", slug)
+                .body(Mono.just(Comment.builder().content("comment of " + title).build()));
+        assertEquals(HttpStatus.CREATED, onEventLoop(this.commentHandler.create(createComment)).block(Duration.ofSeconds(10L)).statusCode());
+        assertEquals("auditor", this.comments.findAll()
+                .filter((comment) -> slug.equals(comment.getPost().getSlug()))
+                .blockFirst(Duration.ofSeconds(10L))
+                .getAuthor().getUsername());
+    }
+
+    private static <T> Mono<T> onEventLoop(Mono<T> source) {
+        return source
+                .subscribeOn(Schedulers.parallel())
+                .subscriberContext(ReactiveSecurityContextHolder.withAuthentication(
+                        new UsernamePasswordAuthenticationToken("auditor", "password", AuthorityUtils.createAuthorityList("ROLE_USER"))
+                ));
+    }
+
+}
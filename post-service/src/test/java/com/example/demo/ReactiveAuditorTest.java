@@ -0,0 +1,59 @@
+package com.example.demo;
+
+import java.time.Duration;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import reactor.blockhound.BlockingOperationError;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ReactiveAuditorTest {
+
+    private final ReactiveAuditor auditor = new ReactiveAuditor(new MongoMappingContext());
+
+    @BeforeClass
+    public static void installBlockHound() {
+        BlockHoundListener.install();
+    }
+
+    @Test
+    public void blockingOnEventLoopFails() {
+        StepVerifier.create(Mono.delay(Duration.ofMillis(1L)).doOnNext((tick) -> {
+            try {
+                Thread.sleep(10L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }))
+                .expectError(BlockingOperationError.class)
+                .verify();
+    }
+
+    @Test
+    public void markCreatedSetsAuthorFromSubscriberContext() {
+        StepVerifier.create(this.auditor.markCreated(Post.builder().title("title").build())
+                .subscribeOn(Schedulers.parallel())
+                .subscriberContext(ReactiveSecurityContextHolder.withAuthentication(
+                        new UsernamePasswordAuthenticationToken("auditor", "password", AuthorityUtils.createAuthorityList("ROLE_USER"))
+                )))
+                .assertNext((post) -> assertEquals("auditor", post.getAuthor().getUsername()))
+                .verifyComplete();
+    }
+
+    @Test
+    public void markCreatedWithoutAuthenticationLeavesAuthorEmpty() {
+        StepVerifier.create(this.auditor.markCreated(Comment.builder().content("content").build())
+                .subscribeOn(Schedulers.parallel()))
+                .assertNext((comment) -> assertNull(comment.getAuthor()))
+                .verifyComplete();
+    }
+
+}
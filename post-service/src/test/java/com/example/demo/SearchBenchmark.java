@@ -0,0 +1,139 @@
+package com.example.demo;
+
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import reactor.core.publisher.Flux;
+
+/**
+ * Latency of a page of {@code GET /posts/search} hits on the text index against the regex scan
+ * the clients effectively did by filtering all posts. The collection is seeded once with
+ * {@code posts} random posts in the {@code search_benchmark} database of the MongoDB server at
+ * {@code -Dmongodb.uri}. Run the main method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    static final String[] WORDS = {
+        "reactive", "spring", "mongodb", "redis", "cassandra", "gateway", "security", "session",
+        "stream", "cursor", "index", "cache", "latency", "throughput", "backpressure", "netty",
+        "docker", "compose", "kotlin", "java", "lambda", "router", "handler", "filter"
+    };
+
+    static final int TAGS = 1000;
+
+    @Param({"100000"})
+    int posts;
+
+    @Param({"20"})
+    int pageSize;
+
+    MongoClient client;
+    MongoCollection<Document> collection;
+    Random random = new Random(42);
+
+    @Setup
+    public void setup() {
+        this.client = MongoClients.create(System.getProperty("mongodb.uri", "mongodb://localhost:27017"));
+        this.collection = this.client.getDatabase("search_benchmark").getCollection("post");
+
+        long existing = Flux.from(this.collection.count()).blockLast();
+        if (existing != this.posts) {
+            Flux.from(this.collection.drop()).blockLast();
+            Random seed = new Random(7);
+            List<Document> batch = new ArrayList<>();
+            for (int i = 0; i < this.posts; i++) {
+                batch.add(new Document("title", sentence(seed, 6) + " " + i)
+                        .append("slug", "post-" + i)
+                        // every tag matches posts / TAGS posts
+                        .append("content", sentence(seed, 200) + " tag" + (i % TAGS)));
+                if (batch.size() == 1000) {
+                    Flux.from(this.collection.insertMany(batch)).blockLast();
+                    batch = new ArrayList<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                Flux.from(this.collection.insertMany(batch)).blockLast();
+            }
+            // the index of IndexInitializer
+            Flux.from(this.collection.createIndex(
+                    new Document("title", "text").append("content", "text"),
+                    new IndexOptions().name("title_content_text").weights(new Document("title", 10).append("content", 1))
+            )).blockLast();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.client.close();
+    }
+
+    @Benchmark
+    public List<Document> textIndex() {
+        String word = "tag" + this.random.nextInt(TAGS);
+        return Flux.from(this.collection
+                .find(new Document("$text", new Document("$search", word)))
+                .projection(Projections.fields(Projections.exclude("content"), Projections.metaTextScore("score")))
+                .sort(Sorts.metaTextScore("score"))
+                .limit(this.pageSize + 1))
+                .collectList()
+                .block();
+    }
+
+    // all the matches are needed to rank them
+    @Benchmark
+    public List<Document> regexScan() {
+        Pattern word = Pattern.compile("\\btag" + this.random.nextInt(TAGS) + "\\b", Pattern.CASE_INSENSITIVE);
+        return Flux.from(this.collection
+                .find(new Document("$or", Arrays.asList(new Document("title", word), new Document("content", word))))
+                .projection(Projections.exclude("content")))
+                .collectList()
+                .block();
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SearchBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.example.demo;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * {@link Utils#slugify(String)} against the former regex based implementation.
+ * Run the main method, it adds the gc profiler for the allocation rate per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlugifyBenchmark {
+
+    @Param({"short", "long", "accented"})
+    String sample;
+
+    String title;
+
+    @Setup
+    public void setup() {
+        switch (this.sample) {
+            case "short":
+                this.title = "Hello world";
+                break;
+            case "long":
+                this.title = "Getting started with Spring WebFlux and reactive MongoDB \n part one";
+                break;
+            default:
+                this.title = "Cr\u00e8me br\u00fbl\u00e9e \u00e0 la fran\u00e7aise, sans r\u00e9frig\u00e9rateur";
+        }
+    }
+
+    @Benchmark
+    public String singlePass() {
+        return Utils.slugify(this.title);
+    }
+
+    @Benchmark
+    public String regex() {
+        return regexSlugify(this.title);
+    }
+
+    // the implementation replaced by the single pass one
+    static String regexSlugify(String source) {
+        String result = source.toLowerCase();
+        result = result.replaceAll("\r\n", "");
+        result = result.replaceAll("\n", "");
+        result = result.replaceAll("\r", "");
+        result = result.replaceAll("[\\s]+", "-");
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SlugifyBenchmark.class.getSimpleName()).addProfiler("gc").build()).run();
+    }
+
+}
@@ -5,6 +5,9 @@
  */
 package com.example.demo;
 
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
@@ -20,4 +23,70 @@ public class SlugifyTest {
         assertTrue(Utils.slugify("Hello \n world").equals("hello-world"));
     }
 
+    @Test
+    public void testSlugifySeparators() {
+        assertEquals("hello-world", Utils.slugify("  Hello,   World!  "));
+        assertEquals("hello-world", Utils.slugify("Hello \r\n\t-- world --"));
+        assertEquals("c-and-java-8", Utils.slugify("C++ and Java 8"));
+        assertEquals(Utils.FALLBACK_SLUG, Utils.slugify("!!!"));
+    }
+
+    @Test
+    public void testSlugifyUnicode() {
+        assertEquals("creme-brulee", Utils.slugify("Cr\u00e8me Br\u00fbl\u00e9e"));
+        // decomposed, e followed by a combining acute accent
+        assertEquals("cafe", Utils.slugify("Cafe\u0301"));
+        assertEquals("strasse-smorrebrod-lodz", Utils.slugify("Stra\u00dfe Sm\u00f8rrebr\u00f8d \u0141\u00f3d\u017a"));
+        assertEquals("\u043f\u0440\u0438\u0432\u0435\u0442-world", Utils.slugify("\u041f\u0440\u0438\u0432\u0435\u0442 World"));
+    }
+
+    @Test
+    public void testSlugifyMaxLength() {
+        assertEquals("hello", Utils.slugify("Hello world", 10));
+        assertEquals("hello", Utils.slugify("Hello worlds", 10));
+        assertEquals("hello-world", Utils.slugify("Hello world again", 11));
+        assertEquals("helloworld", Utils.slugify("Helloworlds", 10));
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            title.append("word ");
+        }
+        String slug = Utils.slugify(title.toString());
+        assertTrue(slug.length() <= Utils.SLUG_MAX_LENGTH);
+        assertTrue(!slug.endsWith("-"));
+    }
+
+    @Test
+    public void testUniqueSlug() {
+        assertEquals("hello-world", Utils.uniqueSlug("hello-world", Collections.<String>emptyList()));
+        assertEquals("hello-world-1", Utils.uniqueSlug("hello-world", Arrays.asList("hello-world")));
+        assertEquals("hello-world-3", Utils.uniqueSlug("hello-world", Arrays.asList("hello-world-2", "hello-world", "hello-world-again")));
+    }
+
+    @Test
+    public void testUniqueSlugSkipsReservedSegments() {
+        assertEquals("search-1", Utils.uniqueSlug(Utils.slugify("Search"), Collections.<String>emptyList()));
+        assertEquals("bulk-3", Utils.uniqueSlug("bulk", Arrays.asList("bulk-1", "bulk-2")));
+        assertEquals("searching", Utils.uniqueSlug("searching", Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void testTitleWithoutLettersOrDigits() {
+        assertEquals(Utils.FALLBACK_SLUG, Utils.slugify("\uD83D\uDE00 \uD83C\uDF89"));
+        assertEquals(Utils.FALLBACK_SLUG, Utils.slugify(""));
+        assertEquals(Utils.FALLBACK_SLUG, Utils.slugify(" - "));
+        assertEquals("post-2", Utils.uniqueSlug(Utils.slugify("???"), Arrays.asList("post", "post-1")));
+    }
+
+    @Test
+    public void testSlugPattern() {
+        assertTrue("hello-world".matches(Utils.slugPattern("hello-world")));
+        assertTrue("hello-world-12".matches(Utils.slugPattern("hello-world")));
+        assertTrue(!"hello-world-again".matches(Utils.slugPattern("hello-world")));
+        assertTrue(!"hello-worlds".matches(Utils.slugPattern("hello-world")));
+        assertTrue(!"say-hello-world".matches(Utils.slugPattern("hello-world")));
+        // legacy slugs may hold regex characters
+        assertTrue("a.b+c-1".matches(Utils.slugPattern("a.b+c")));
+        assertTrue(!"axbbc".matches(Utils.slugPattern("a.b+c")));
+    }
+
 }